@@ -0,0 +1,297 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Runs the replay benchmark against a local stand-in server and shows the results, debug builds only.
+ *
+ * The drive and network conditions come from intent extras, so a run can be repeated exactly, e.g.
+ * <pre>
+ * adb shell am start \
+ *     -n com.microsoft.onedrive.onedriveapiexplorer/com.microsoft.onedrive.apiexplorer.BenchmarkActivity \
+ *     --ei latencyMs 120 --el bytesPerSecond 500000 --ei throttleEvery 25
+ * </pre>
+ * The results are also logged and written to benchmark.json in the external files directory.
+ */
+public class BenchmarkActivity extends Activity {
+
+    /**
+     * The delay before every response, in milliseconds
+     */
+    static final String EXTRA_LATENCY_MS = "latencyMs";
+
+    /**
+     * The bandwidth of every body in bytes per second, 0 for unpaced
+     */
+    static final String EXTRA_BYTES_PER_SECOND = "bytesPerSecond";
+
+    /**
+     * Every how many requests one is throttled, 0 to never throttle
+     */
+    static final String EXTRA_THROTTLE_EVERY = "throttleEvery";
+
+    /**
+     * The seed the drive, the folders opened and the uploads are generated from
+     */
+    static final String EXTRA_SEED = "seed";
+
+    /**
+     * The number of subfolders in every folder
+     */
+    static final String EXTRA_FOLDERS_PER_FOLDER = "foldersPerFolder";
+
+    /**
+     * The number of photos in every folder
+     */
+    static final String EXTRA_FILES_PER_FOLDER = "filesPerFolder";
+
+    /**
+     * The number of folder levels below the root
+     */
+    static final String EXTRA_DEPTH = "depth";
+
+    /**
+     * The number of folders to open
+     */
+    static final String EXTRA_FOLDER_OPENS = "folderOpens";
+
+    /**
+     * The number of files to upload
+     */
+    static final String EXTRA_UPLOADS = "uploads";
+
+    /**
+     * The size of every uploaded file in bytes
+     */
+    static final String EXTRA_UPLOAD_BYTES = "uploadBytes";
+
+    /**
+     * The default delay before every response, a typical mobile round trip
+     */
+    private static final int DEFAULT_LATENCY_MS = 80;
+
+    /**
+     * The default bandwidth, a typical mobile connection
+     */
+    private static final long DEFAULT_BYTES_PER_SECOND = 2L * 1000 * 1000;
+
+    /**
+     * The default seed
+     */
+    private static final long DEFAULT_SEED = 1;
+
+    /**
+     * The default number of subfolders in every folder
+     */
+    private static final int DEFAULT_FOLDERS_PER_FOLDER = 4;
+
+    /**
+     * The default number of photos in every folder
+     */
+    private static final int DEFAULT_FILES_PER_FOLDER = 60;
+
+    /**
+     * The default number of folder levels below the root
+     */
+    private static final int DEFAULT_DEPTH = 3;
+
+    /**
+     * The default number of folders to open
+     */
+    private static final int DEFAULT_FOLDER_OPENS = 20;
+
+    /**
+     * The default number of files to upload
+     */
+    private static final int DEFAULT_UPLOADS = 5;
+
+    /**
+     * The default size of every uploaded file
+     */
+    private static final int DEFAULT_UPLOAD_BYTES = 1024 * 1024;
+
+    /**
+     * The quality the served thumbnail is compressed at
+     */
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    /**
+     * The color of the served thumbnail
+     */
+    private static final int THUMBNAIL_COLOR = 0xFF0078D7;
+
+    /**
+     * The log tag
+     */
+    private static final String TAG = "BenchmarkActivity";
+
+    /**
+     * The file the results are written to
+     */
+    private static final String RESULTS_FILE = "benchmark.json";
+
+    /**
+     * Shows the results
+     */
+    private TextView mResults;
+
+    /**
+     * Starts the benchmark
+     * @param savedInstanceState The saved instance state
+     */
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mResults = new TextView(this);
+        mResults.setTypeface(Typeface.MONOSPACE);
+        mResults.setText(R.string.benchmark_running);
+        final ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mResults);
+        setContentView(scrollView);
+
+        final Intent intent = getIntent();
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(final Void... params) {
+                try {
+                    final String results = new GsonBuilder()
+                            .setPrettyPrinting()
+                            .create()
+                            .toJson(run(intent));
+                    Log.i(TAG, results);
+                    writeResults(results);
+                    return results;
+                } catch (final Exception e) {
+                    Log.e(TAG, "Benchmark failed", e);
+                    return getString(R.string.benchmark_failed, e);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(final String results) {
+                mResults.setText(results);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Runs every scenario against a freshly generated drive
+     * @param intent The intent with the drive and network conditions
+     * @return The conditions and results
+     * @throws IOException If the stand-in server could not be started
+     * @throws InterruptedException If interrupted while waiting for thumbnails
+     */
+    private JsonObject run(final Intent intent) throws IOException, InterruptedException {
+        final JsonObject conditions = new JsonObject();
+        final long latencyMs = intent.getIntExtra(EXTRA_LATENCY_MS, DEFAULT_LATENCY_MS);
+        final long bytesPerSecond = intent.getLongExtra(EXTRA_BYTES_PER_SECOND, DEFAULT_BYTES_PER_SECOND);
+        final int throttleEvery = intent.getIntExtra(EXTRA_THROTTLE_EVERY, 0);
+        final long seed = intent.getLongExtra(EXTRA_SEED, DEFAULT_SEED);
+        final int foldersPerFolder = intent.getIntExtra(EXTRA_FOLDERS_PER_FOLDER, DEFAULT_FOLDERS_PER_FOLDER);
+        final int filesPerFolder = intent.getIntExtra(EXTRA_FILES_PER_FOLDER, DEFAULT_FILES_PER_FOLDER);
+        final int depth = intent.getIntExtra(EXTRA_DEPTH, DEFAULT_DEPTH);
+        final int folderOpens = intent.getIntExtra(EXTRA_FOLDER_OPENS, DEFAULT_FOLDER_OPENS);
+        final int uploads = intent.getIntExtra(EXTRA_UPLOADS, DEFAULT_UPLOADS);
+        final int uploadBytes = intent.getIntExtra(EXTRA_UPLOAD_BYTES, DEFAULT_UPLOAD_BYTES);
+        conditions.addProperty(EXTRA_LATENCY_MS, latencyMs);
+        conditions.addProperty(EXTRA_BYTES_PER_SECOND, bytesPerSecond);
+        conditions.addProperty(EXTRA_THROTTLE_EVERY, throttleEvery);
+        conditions.addProperty(EXTRA_SEED, seed);
+        conditions.addProperty(EXTRA_FOLDERS_PER_FOLDER, foldersPerFolder);
+        conditions.addProperty(EXTRA_FILES_PER_FOLDER, filesPerFolder);
+        conditions.addProperty(EXTRA_DEPTH, depth);
+
+        final SyntheticDrive drive = new SyntheticDrive(seed, foldersPerFolder, filesPerFolder, depth);
+        final StandInServer server =
+                new StandInServer(drive, createThumbnail(), latencyMs, bytesPerSecond, throttleEvery);
+        server.start();
+        try {
+            final ReplayBenchmark benchmark = new ReplayBenchmark((BaseApplication) getApplication(), server.getUrl());
+            final List<String> folderIds = drive.getFolderIds();
+            final JsonObject results = new JsonObject();
+            results.add("conditions", conditions);
+            results.add("folderOpenMicros", benchmark.openFolders(folderIds, folderOpens, seed));
+            results.add("thumbnails", benchmark.loadThumbnails(SyntheticDrive.ROOT_ALIAS));
+            results.add("upload", benchmark.upload(SyntheticDrive.ROOT_ALIAS, uploads, uploadBytes, seed));
+            results.add("delta", benchmark.enumerateDelta());
+            results.addProperty("serverRequests", server.getRequestCount());
+            results.add("metrics", benchmark.getMetrics());
+            return results;
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Creates the thumbnail served for every photo
+     * @return The compressed thumbnail
+     */
+    private static byte[] createThumbnail() {
+        final Bitmap bitmap = Bitmap.createBitmap(SyntheticDrive.THUMBNAIL_SIZE,
+                                                  SyntheticDrive.THUMBNAIL_SIZE,
+                                                  Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(THUMBNAIL_COLOR);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the results where they can be pulled from the device
+     * @param results The results
+     * @throws IOException If the results could not be written
+     */
+    private void writeResults(final String results) throws IOException {
+        final File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            return;
+        }
+        final OutputStream out = new FileOutputStream(new File(directory, RESULTS_FILE));
+        try {
+            out.write(results.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.gson.JsonObject;
+import com.microsoft.graph.authentication.IAuthenticationProvider;
+import com.microsoft.graph.core.DefaultClientConfig;
+import com.microsoft.graph.core.IClientConfig;
+import com.microsoft.graph.extensions.DriveItem;
+import com.microsoft.graph.extensions.GraphServiceClient;
+import com.microsoft.graph.extensions.IDriveItemDeltaCollectionRequest;
+import com.microsoft.graph.extensions.IGraphServiceClient;
+import com.microsoft.graph.http.DefaultHttpProvider;
+import com.microsoft.graph.http.IHttpProvider;
+import com.microsoft.graph.http.IHttpRequest;
+import com.microsoft.graph.logger.ILogger;
+import com.microsoft.graph.options.Option;
+import com.microsoft.graph.options.QueryOption;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Authenticator;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Drives the request paths of the explorer against a {@link StandInServer}: opening folders, loading their
+ * thumbnails, uploading files and enumerating a delta. Each run gets its own http client, metrics and caches,
+ * so nothing is shared with the signed in application or with earlier runs.
+ */
+class ReplayBenchmark {
+
+    /**
+     * The host of the service, rewritten to the stand-in server
+     */
+    private static final String GRAPH_HOST = "graph.microsoft.com";
+
+    /**
+     * The number of nanoseconds in a microsecond
+     */
+    private static final long NANOSECONDS_PER_MICROSECOND = 1000;
+
+    /**
+     * The number of nanoseconds in a second
+     */
+    private static final double NANOSECONDS_PER_SECOND = 1e9;
+
+    /**
+     * The number of bytes of decoded thumbnails the memory cache holds
+     */
+    private static final int THUMBNAIL_CACHE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The number of bytes of thumbnails the disk cache holds
+     */
+    private static final long DISK_THUMBNAIL_CACHE_BYTES = 20L * 1024 * 1024;
+
+    /**
+     * How long to wait for every thumbnail of a folder to load
+     */
+    private static final long THUMBNAIL_TIMEOUT_SECONDS = 120;
+
+    /**
+     * The directory within the cache directory that holds benchmark thumbnails
+     */
+    private static final String THUMBNAIL_CACHE_DIRECTORY = "benchmark-thumbnails";
+
+    /**
+     * The application, for its logger and directories
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The metrics of the requests made in this run
+     */
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+
+    /**
+     * The sizes of the responses received in this run
+     */
+    private final TransferStats mTransferStats;
+
+    /**
+     * The http client, configured like the shared one but sent to the stand-in server
+     */
+    private final OkHttpClient mHttpClient;
+
+    /**
+     * The Graph client sending through the http client
+     */
+    private final IGraphServiceClient mClient;
+
+    /**
+     * Default constructor
+     * @param application The application, for its logger and directories
+     * @param server The url of the stand-in server
+     */
+    ReplayBenchmark(final BaseApplication application, final HttpUrl server) {
+        mApplication = application;
+        mTransferStats = new TransferStats(application.getLogger());
+        mHttpClient = SharedHttpClient.create(mTransferStats, mMetrics, Authenticator.NONE)
+                .newBuilder()
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(final Chain chain) throws IOException {
+                        final Request request = chain.request();
+                        if (!request.url().host().equals(GRAPH_HOST)) {
+                            return chain.proceed(request);
+                        }
+                        final HttpUrl url = request.url()
+                                .newBuilder()
+                                .scheme(server.scheme())
+                                .host(server.host())
+                                .port(server.port())
+                                .build();
+                        return chain.proceed(request.newBuilder().url(url).build());
+                    }
+                })
+                .build();
+        mClient = new GraphServiceClient.Builder().fromConfig(createConfig()).buildClient();
+    }
+
+    /**
+     * Creates a client configuration like the application's, without an account
+     * @return The configuration
+     */
+    private IClientConfig createConfig() {
+        final OkHttpConnectionFactory connectionFactory = new OkHttpConnectionFactory(mHttpClient);
+        return new DefaultClientConfig() {
+            @Override
+            public IAuthenticationProvider getAuthenticationProvider() {
+                return new IAuthenticationProvider() {
+                    @Override
+                    public void authenticateRequest(final IHttpRequest request) {
+                        request.addHeader("Authorization", "bearer stand-in");
+                    }
+                };
+            }
+
+            @Override
+            public ILogger getLogger() {
+                return mApplication.getLogger();
+            }
+
+            @Override
+            public IHttpProvider getHttpProvider() {
+                final DefaultHttpProvider httpProvider = (DefaultHttpProvider) super.getHttpProvider();
+                httpProvider.setConnectionFactory(connectionFactory);
+                return httpProvider;
+            }
+        };
+    }
+
+    /**
+     * Opens folders the way the folder view does, fetching each with its children and their thumbnails
+     * @param folderIds The folders to pick from
+     * @param count The number of folders to open
+     * @param seed The seed the folders are picked with
+     * @return The latency of each open in microseconds
+     */
+    JsonObject openFolders(final List<String> folderIds, final int count, final long seed) {
+        final Random random = new Random(seed);
+        final LogLinearHistogram latency = new LogLinearHistogram();
+        for (int i = 0; i < count; i++) {
+            final String folderId = folderIds.get(random.nextInt(folderIds.size()));
+            final long start = System.nanoTime();
+            getFolder(folderId);
+            latency.record((System.nanoTime() - start) / NANOSECONDS_PER_MICROSECOND);
+        }
+        return latency.toJson();
+    }
+
+    /**
+     * Loads the thumbnail of every child of a folder through a cold thumbnail loader
+     * @param folderId The folder
+     * @return The number of thumbnails requested and loaded, and how long it took
+     * @throws InterruptedException If interrupted while waiting for the thumbnails
+     */
+    JsonObject loadThumbnails(final String folderId) throws InterruptedException {
+        final ThumbnailCache imageCache = new ThumbnailCache(THUMBNAIL_CACHE_BYTES);
+        final File diskDirectory = new File(mApplication.getCacheDir(), THUMBNAIL_CACHE_DIRECTORY);
+        deleteRecursively(diskDirectory);
+        final ThumbnailLoader loader =
+                new ThumbnailLoader(imageCache,
+                                    new DiskThumbnailCache(diskDirectory, DISK_THUMBNAIL_CACHE_BYTES),
+                                    mHttpClient,
+                                    new BitmapDecoder(imageCache.getPool()),
+                                    SyntheticDrive.THUMBNAIL_SIZE,
+                                    mApplication.getLogger());
+
+        final List<DisplayItem> items = new ArrayList<>();
+        final DriveItem folder = getFolder(folderId);
+        if (folder.children != null) {
+            for (final DriveItem child : folder.children.getCurrentPage()) {
+                final DisplayItem item = new DisplayItem(child, child.id, imageCache);
+                if (item.hasThumbnail()) {
+                    items.add(item);
+                }
+            }
+        }
+
+        final CountDownLatch loaded = new CountDownLatch(items.size());
+        final ThumbnailLoader.Listener listener = new ThumbnailLoader.Listener() {
+            @Override
+            public void onThumbnailLoaded(final String itemId, final Bitmap bitmap) {
+                loaded.countDown();
+            }
+        };
+        final long start = System.nanoTime();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                for (final DisplayItem item : items) {
+                    loader.load(item, ThumbnailLoader.PRIORITY_VISIBLE, listener);
+                }
+            }
+        });
+        loaded.await(THUMBNAIL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final double seconds = (System.nanoTime() - start) / NANOSECONDS_PER_SECOND;
+
+        final long loadedCount = items.size() - loaded.getCount();
+        final JsonObject result = new JsonObject();
+        result.addProperty("requested", items.size());
+        result.addProperty("loaded", loadedCount);
+        result.addProperty("seconds", seconds);
+        result.addProperty("perSecond", loadedCount / seconds);
+        return result;
+    }
+
+    /**
+     * Uploads files the way the operation queue does
+     * @param folderId The folder to upload into
+     * @param count The number of files to upload
+     * @param size The size of each file in bytes
+     * @param seed The seed the file contents are generated from
+     * @return The latency of each upload in microseconds and the overall throughput
+     */
+    JsonObject upload(final String folderId, final int count, final int size, final long seed) {
+        final Random random = new Random(seed);
+        final LogLinearHistogram latency = new LogLinearHistogram();
+        final List<Option> options =
+                Collections.<Option>singletonList(new QueryOption("@name.conflictBehavior", "replace"));
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final byte[] content = new byte[size];
+            random.nextBytes(content);
+            final long uploadStart = System.nanoTime();
+            mClient.getMe()
+                   .getDrive()
+                   .getItems(folderId)
+                   .getChildren()
+                   .byId(String.format(Locale.ROOT, "Upload %04d.bin", i))
+                   .getContent()
+                   .buildRequest(options)
+                   .put(content);
+            latency.record((System.nanoTime() - uploadStart) / NANOSECONDS_PER_MICROSECOND);
+        }
+        final double seconds = (System.nanoTime() - start) / NANOSECONDS_PER_SECOND;
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("files", count);
+        result.addProperty("bytes", (long) count * size);
+        result.addProperty("seconds", seconds);
+        result.addProperty("bytesPerSecond", count * (double) size / seconds);
+        result.add("latencyMicros", latency.toJson());
+        return result;
+    }
+
+    /**
+     * Enumerates the whole drive through the delta fetcher the sync job uses
+     * @return The number of pages and items and the item rate
+     */
+    JsonObject enumerateDelta() {
+        final StreamingPageFetcher fetcher = new StreamingPageFetcher(mClient, mHttpClient, false);
+        IDriveItemDeltaCollectionRequest request =
+                DeltaEnumerator.buildFirstRequest(mClient, SyntheticDrive.ROOT_ALIAS, null);
+        int pages = 0;
+        long items = 0;
+        final long start = System.nanoTime();
+        while (request != null) {
+            final DriveItemPage page = fetcher.fetch(request);
+            pages++;
+            items += page.getItems().size();
+            if (page.getNextLink() == null) {
+                request = null;
+            } else {
+                request = fetcher.buildLinkRequest(page.getNextLink());
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / NANOSECONDS_PER_SECOND;
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("pages", pages);
+        result.addProperty("items", items);
+        result.addProperty("seconds", seconds);
+        result.addProperty("itemsPerSecond", items / seconds);
+        return result;
+    }
+
+    /**
+     * Gets the per endpoint metrics and transfer totals of everything sent so far
+     * @return The metrics
+     */
+    JsonObject getMetrics() {
+        final JsonObject result = mMetrics.snapshot();
+        result.addProperty("wireBytes", mTransferStats.getWireBytes());
+        result.addProperty("decodedBytes", mTransferStats.getDecodedBytes());
+        return result;
+    }
+
+    /**
+     * Fetches a folder with the expansion the folder view asks for
+     * @param folderId The folder
+     * @return The folder
+     */
+    private DriveItem getFolder(final String folderId) {
+        return mClient.getMe()
+                      .getDrive()
+                      .getItems(folderId)
+                      .buildRequest()
+                      .expand(ItemFragment.EXPAND_OPTIONS_FOR_CHILDREN_AND_THUMBNAILS)
+                      .get();
+    }
+
+    /**
+     * Deletes a file or a directory and everything in it
+     * @param file The file or directory
+     */
+    private static void deleteRecursively(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IllegalStateException("Unable to delete " + file);
+        }
+    }
+}
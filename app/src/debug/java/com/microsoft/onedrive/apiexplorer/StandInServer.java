@@ -0,0 +1,583 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * A local stand-in for the drive endpoints the explorer calls, serving a {@link SyntheticDrive}
+ * under network conditions that stay the same from run to run.
+ *
+ * Every response waits the configured latency before its headers, bodies in both directions are
+ * paced to the configured bandwidth, and every n-th request is throttled with a 429.
+ */
+class StandInServer {
+
+    /**
+     * The path segments every Graph drive request starts with
+     */
+    private static final int DRIVE_PREFIX_SEGMENTS = 3;
+
+    /**
+     * The largest number of items in a page of children or changes
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The number of times per second paced bodies are released
+     */
+    private static final int PACING_PERIODS_PER_SECOND = 10;
+
+    /**
+     * The number of milliseconds in a pacing period
+     */
+    private static final long PACING_PERIOD_MILLISECONDS = 1000 / PACING_PERIODS_PER_SECOND;
+
+    /**
+     * The status code of a throttled request
+     */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The status code of an upload range that does not follow the bytes already received
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * The number of seconds a throttled request is asked to wait
+     */
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    /**
+     * The expansion of children with their thumbnails
+     */
+    private static final String CHILDREN_WITH_THUMBNAILS = "children(expand=thumbnails)";
+
+    /**
+     * The drive being served
+     */
+    private final SyntheticDrive mDrive;
+
+    /**
+     * The bytes served for every thumbnail
+     */
+    private final byte[] mThumbnail;
+
+    /**
+     * The delay before the headers of every response, in milliseconds
+     */
+    private final long mLatencyMillis;
+
+    /**
+     * The bandwidth of every body, in bytes per second, or 0 for unpaced
+     */
+    private final long mBytesPerSecond;
+
+    /**
+     * Every how many requests one is throttled, or 0 to never throttle
+     */
+    private final int mThrottleEvery;
+
+    /**
+     * The number of requests received
+     */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * The upload sessions in progress, by session id
+     */
+    private final ConcurrentHashMap<String, UploadSession> mUploadSessions = new ConcurrentHashMap<>();
+
+    /**
+     * The server
+     */
+    private final MockWebServer mServer = new MockWebServer();
+
+    /**
+     * Default constructor
+     * @param drive The drive being served
+     * @param thumbnail The bytes served for every thumbnail
+     * @param latencyMillis The delay before the headers of every response, in milliseconds
+     * @param bytesPerSecond The bandwidth of every body, in bytes per second, or 0 for unpaced
+     * @param throttleEvery Every how many requests one is throttled, or 0 to never throttle
+     */
+    StandInServer(final SyntheticDrive drive,
+                  final byte[] thumbnail,
+                  final long latencyMillis,
+                  final long bytesPerSecond,
+                  final int throttleEvery) {
+        mDrive = drive;
+        mThumbnail = thumbnail;
+        mLatencyMillis = latencyMillis;
+        mBytesPerSecond = bytesPerSecond;
+        mThrottleEvery = throttleEvery;
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(final RecordedRequest request) {
+                return shape(route(request));
+            }
+        });
+    }
+
+    /**
+     * Starts listening on a local port, must not be called from the main thread
+     * @throws IOException If the server could not be started
+     */
+    void start() throws IOException {
+        mServer.start();
+    }
+
+    /**
+     * Stops the server
+     * @throws IOException If the server could not be stopped cleanly
+     */
+    void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+
+    /**
+     * Gets the url of the server
+     * @return The url
+     */
+    HttpUrl getUrl() {
+        return mServer.url("/");
+    }
+
+    /**
+     * Gets the number of requests received
+     * @return The number of requests
+     */
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Applies the network conditions to a response
+     * @param response The response
+     * @return The response
+     */
+    private MockResponse shape(final MockResponse response) {
+        response.setHeadersDelay(mLatencyMillis, TimeUnit.MILLISECONDS);
+        if (mBytesPerSecond > 0) {
+            response.throttleBody(Math.max(mBytesPerSecond / PACING_PERIODS_PER_SECOND, 1),
+                                  PACING_PERIOD_MILLISECONDS,
+                                  TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Answers a request
+     * @param request The request
+     * @return The response
+     */
+    private MockResponse route(final RecordedRequest request) {
+        final int count = mRequestCount.incrementAndGet();
+        if (mThrottleEvery > 0 && count % mThrottleEvery == 0) {
+            return error(HTTP_TOO_MANY_REQUESTS, "activityLimitReached")
+                    .setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        }
+
+        final HttpUrl url = request.getRequestUrl();
+        final List<String> segments = url.pathSegments();
+        final String baseUrl = getUrl().toString();
+        final String method = request.getMethod();
+        switch (segments.get(0)) {
+            case "thumbnails":
+                return bytes(mThumbnail, "image/jpeg");
+            case "download":
+                final byte[] content = mDrive.getContent(segments.get(1));
+                if (content == null) {
+                    return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+                }
+                return bytes(content, "application/octet-stream");
+            case "upload":
+                return uploadRange(request, segments.get(1), baseUrl);
+            case "v1.0":
+                if (segments.size() > DRIVE_PREFIX_SEGMENTS) {
+                    return routeItem(request, segments.subList(DRIVE_PREFIX_SEGMENTS, segments.size()), baseUrl);
+                }
+                break;
+            default:
+                break;
+        }
+        return error(HttpURLConnection.HTTP_BAD_REQUEST, "invalidRequest: " + method + " " + url.encodedPath());
+    }
+
+    /**
+     * Answers a request below /v1.0/me/drive
+     * @param request The request
+     * @param segments The path segments below the drive
+     * @param baseUrl The url of the server
+     * @return The response
+     */
+    private MockResponse routeItem(final RecordedRequest request, final List<String> segments, final String baseUrl) {
+        final String method = request.getMethod();
+        final String id;
+        final List<String> rest;
+        if (segments.get(0).equals(SyntheticDrive.ROOT_ALIAS)) {
+            id = SyntheticDrive.ROOT_ALIAS;
+            rest = segments.subList(1, segments.size());
+        } else if (segments.get(0).equals("items") && segments.size() > 1) {
+            id = segments.get(1);
+            rest = segments.subList(2, segments.size());
+        } else {
+            return error(HttpURLConnection.HTTP_BAD_REQUEST, "invalidRequest");
+        }
+
+        // Path addressed children, items/{parent-id}:/{name}:/action
+        if (id.endsWith(":") && !rest.isEmpty() && rest.get(0).endsWith(":")) {
+            final String parentId = id.substring(0, id.length() - 1);
+            final String name = rest.get(0).substring(0, rest.get(0).length() - 1);
+            return routeChild(request, parentId, name, rest.subList(1, rest.size()), baseUrl);
+        }
+
+        if (rest.isEmpty()) {
+            switch (method) {
+                case "GET":
+                    return getItem(request, id, baseUrl);
+                case "PATCH":
+                    final JsonObject update = readJson(request);
+                    return json(HttpURLConnection.HTTP_OK, mDrive.rename(id, update.get("name").getAsString()));
+                case "DELETE":
+                    if (!mDrive.delete(mDrive.resolve(id))) {
+                        return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+                    }
+                    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NO_CONTENT);
+                default:
+                    return error(HttpURLConnection.HTTP_BAD_METHOD, "invalidRequest");
+            }
+        }
+
+        switch (rest.get(0)) {
+            case "children":
+                if (rest.size() > 1) {
+                    return routeChild(request, id, rest.get(1), rest.subList(2, rest.size()), baseUrl);
+                }
+                if (method.equals("POST")) {
+                    final JsonObject folder = readJson(request);
+                    return json(HttpURLConnection.HTTP_CREATED,
+                                mDrive.createFolder(id, folder.get("name").getAsString()));
+                }
+                return getChildren(request, id, baseUrl);
+            case "delta":
+                return getDelta(request, id, baseUrl);
+            case "content":
+                return new MockResponse()
+                        .setResponseCode(HttpURLConnection.HTTP_MOVED_TEMP)
+                        .setHeader("Location", baseUrl + "download/" + mDrive.resolve(id));
+            default:
+                return error(HttpURLConnection.HTTP_BAD_REQUEST, "invalidRequest");
+        }
+    }
+
+    /**
+     * Answers a request addressed to a child of a folder by name
+     * @param request The request
+     * @param parentId The parent folder id
+     * @param name The name of the child
+     * @param rest The path segments after the child
+     * @param baseUrl The url of the server
+     * @return The response
+     */
+    private MockResponse routeChild(final RecordedRequest request,
+                                    final String parentId,
+                                    final String name,
+                                    final List<String> rest,
+                                    final String baseUrl) {
+        if (rest.size() == 1 && rest.get(0).equals("content") && request.getMethod().equals("PUT")) {
+            final JsonObject item = mDrive.putFile(parentId, name, request.getBody().readByteArray(), baseUrl);
+            return json(HttpURLConnection.HTTP_CREATED, item);
+        }
+        if (rest.size() == 1 && rest.get(0).equals("createUploadSession") && request.getMethod().equals("POST")) {
+            if (mDrive.getChildCount(parentId) < 0) {
+                return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+            }
+            final String sessionId = UUID.randomUUID().toString();
+            mUploadSessions.put(sessionId, new UploadSession(parentId, name));
+            final JsonObject session = new JsonObject();
+            session.addProperty("uploadUrl", baseUrl + "upload/" + sessionId);
+            session.addProperty("expirationDateTime", "2099-01-01T00:00:00Z");
+            session.add("nextExpectedRanges", ranges(0));
+            return json(HttpURLConnection.HTTP_OK, session);
+        }
+        return error(HttpURLConnection.HTTP_BAD_REQUEST, "invalidRequest");
+    }
+
+    /**
+     * Gets an item, expanding its children and thumbnails as asked
+     * @param request The request
+     * @param id The item id
+     * @param baseUrl The url of the server
+     * @return The response
+     */
+    private MockResponse getItem(final RecordedRequest request, final String id, final String baseUrl) {
+        String expand = request.getRequestUrl().queryParameter("$expand");
+        if (expand == null) {
+            expand = "";
+        }
+        final boolean childThumbnails = expand.contains(CHILDREN_WITH_THUMBNAILS);
+        final boolean children = expand.contains("children");
+        final boolean thumbnails = expand.replace(CHILDREN_WITH_THUMBNAILS, "").contains("thumbnails");
+
+        final JsonObject item = mDrive.getItem(id, baseUrl, thumbnails);
+        if (item == null) {
+            return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+        }
+        if (children && item.has("folder")) {
+            item.add("children", mDrive.getChildren(id, baseUrl, childThumbnails, 0, Integer.MAX_VALUE));
+        }
+        return json(HttpURLConnection.HTTP_OK, item);
+    }
+
+    /**
+     * Gets a page of the children of a folder
+     * @param request The request
+     * @param id The folder id
+     * @param baseUrl The url of the server
+     * @return The response
+     */
+    private MockResponse getChildren(final RecordedRequest request, final String id, final String baseUrl) {
+        final HttpUrl url = request.getRequestUrl();
+        final int skip = parseInt(url.queryParameter("$skiptoken"), 0);
+        final int top = Math.min(parseInt(url.queryParameter("$top"), PAGE_SIZE), PAGE_SIZE);
+        final String expand = url.queryParameter("$expand");
+        final boolean thumbnails = expand != null && expand.contains("thumbnails");
+
+        final JsonArray children = mDrive.getChildren(id, baseUrl, thumbnails, skip, top);
+        if (children == null) {
+            return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+        }
+        final JsonObject page = new JsonObject();
+        page.add("value", children);
+        if (skip + top < mDrive.getChildCount(id)) {
+            page.addProperty("@odata.nextLink", url.newBuilder()
+                                                   .setQueryParameter("$skiptoken", Integer.toString(skip + top))
+                                                   .build()
+                                                   .toString());
+        }
+        return json(HttpURLConnection.HTTP_OK, page);
+    }
+
+    /**
+     * Gets a page of the changes since a delta token
+     * @param request The request
+     * @param id The item id the delta was asked for, the whole drive is enumerated regardless
+     * @param baseUrl The url of the server
+     * @return The response
+     */
+    private MockResponse getDelta(final RecordedRequest request, final String id, final String baseUrl) {
+        final HttpUrl url = request.getRequestUrl();
+        final String tokenParameter = url.queryParameter("token");
+        long token = 0;
+        if (tokenParameter != null) {
+            token = Long.parseLong(tokenParameter);
+        }
+        final JsonObject page = new JsonObject();
+        page.add("value", mDrive.getChanges(token, baseUrl, PAGE_SIZE));
+
+        final long end = mDrive.getChangesEnd(token, PAGE_SIZE);
+        final HttpUrl.Builder link = url.newBuilder().removeAllQueryParameters("token");
+        if (end < mDrive.getSequence()) {
+            page.addProperty("@odata.nextLink", link.addQueryParameter("token", Long.toString(end)).build().toString());
+        } else {
+            final String sequence = Long.toString(mDrive.getSequence());
+            page.addProperty("@odata.deltaLink", link.addQueryParameter("token", sequence).build().toString());
+        }
+        return json(HttpURLConnection.HTTP_OK, page);
+    }
+
+    /**
+     * Receives a range of an upload session
+     * @param request The request
+     * @param sessionId The upload session id
+     * @param baseUrl The url of the server
+     * @return The response
+     */
+    private MockResponse uploadRange(final RecordedRequest request, final String sessionId, final String baseUrl) {
+        final UploadSession session = mUploadSessions.get(sessionId);
+        if (session == null) {
+            return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+        }
+        if (request.getMethod().equals("DELETE")) {
+            mUploadSessions.remove(sessionId);
+            return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NO_CONTENT);
+        }
+
+        // Content-Range: bytes {first}-{last}/{total}
+        final String range = request.getHeader("Content-Range");
+        if (range == null) {
+            return error(HttpURLConnection.HTTP_BAD_REQUEST, "invalidRange");
+        }
+        final String[] parts = range.replace("bytes ", "").split("[-/]");
+        final long first = Long.parseLong(parts[0]);
+        final long total = Long.parseLong(parts[2]);
+        synchronized (session) {
+            if (first != session.mReceived.size()) {
+                return error(HTTP_RANGE_NOT_SATISFIABLE, "invalidRange");
+            }
+            final byte[] bytes = request.getBody().readByteArray();
+            session.mReceived.write(bytes, 0, bytes.length);
+            if (session.mReceived.size() < total) {
+                final JsonObject status = new JsonObject();
+                status.addProperty("expirationDateTime", "2099-01-01T00:00:00Z");
+                status.add("nextExpectedRanges", ranges(session.mReceived.size()));
+                return json(HttpURLConnection.HTTP_ACCEPTED, status);
+            }
+        }
+        mUploadSessions.remove(sessionId);
+        final byte[] content = session.mReceived.toByteArray();
+        return json(HttpURLConnection.HTTP_CREATED, mDrive.putFile(session.mParentId, session.mName, content, baseUrl));
+    }
+
+    /**
+     * Builds the next expected ranges of an upload session
+     * @param received The number of bytes received so far
+     * @return The ranges
+     */
+    private static JsonArray ranges(final long received) {
+        final JsonArray ranges = new JsonArray();
+        ranges.add(new JsonPrimitive(received + "-"));
+        return ranges;
+    }
+
+    /**
+     * Reads a json request body
+     * @param request The request
+     * @return The body
+     */
+    private static JsonObject readJson(final RecordedRequest request) {
+        return new JsonParser().parse(request.getBody().readUtf8()).getAsJsonObject();
+    }
+
+    /**
+     * Parses an optional integer query parameter
+     * @param value The parameter value, or null
+     * @param defaultValue The value if the parameter is missing
+     * @return The value
+     */
+    private static int parseInt(final String value, final int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Builds a json response
+     * @param code The status code
+     * @param body The body, or null if the item was not found
+     * @return The response
+     */
+    private static MockResponse json(final int code, final JsonElement body) {
+        if (body == null) {
+            return error(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound");
+        }
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody(body.toString());
+    }
+
+    /**
+     * Builds a binary response
+     * @param content The body
+     * @param contentType The content type
+     * @return The response
+     */
+    private static MockResponse bytes(final byte[] content, final String contentType) {
+        return new MockResponse()
+                .setResponseCode(HttpURLConnection.HTTP_OK)
+                .setHeader("Content-Type", contentType)
+                .setBody(new Buffer().write(content));
+    }
+
+    /**
+     * Builds an error response in the shape the service uses
+     * @param code The status code
+     * @param errorCode The service error code
+     * @return The response
+     */
+    private static MockResponse error(final int code, final String errorCode) {
+        final JsonObject error = new JsonObject();
+        error.addProperty("code", errorCode);
+        error.addProperty("message", "Stand-in server: " + errorCode);
+        final JsonObject body = new JsonObject();
+        body.add("error", error);
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody(body.toString());
+    }
+
+    /**
+     * The bytes received so far for a file being uploaded in ranges
+     */
+    private static final class UploadSession {
+
+        /**
+         * The parent folder id
+         */
+        private final String mParentId;
+
+        /**
+         * The file name
+         */
+        private final String mName;
+
+        /**
+         * The bytes received so far, guarded by this session
+         */
+        private final ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+
+        /**
+         * Default constructor
+         * @param parentId The parent folder id
+         * @param name The file name
+         */
+        UploadSession(final String parentId, final String name) {
+            mParentId = parentId;
+            mName = name;
+        }
+    }
+}
@@ -0,0 +1,557 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * An in-memory drive of generated folders and photos, the same for a given seed and shape.
+ *
+ * Every change is stamped with an increasing sequence number, which doubles as the delta token.
+ */
+class SyntheticDrive {
+
+    /**
+     * The drive id, the prefix of every item id
+     */
+    static final String DRIVE_ID = "5A1B0C0DE";
+
+    /**
+     * The alias the explorer uses for the root folder
+     */
+    static final String ROOT_ALIAS = "root";
+
+    /**
+     * The number of the root item, the first item id
+     */
+    private static final int FIRST_ITEM_NUMBER = 101;
+
+    /**
+     * The smallest generated file size
+     */
+    private static final int MIN_FILE_BYTES = 16 * 1024;
+
+    /**
+     * The range of generated file sizes above the smallest
+     */
+    private static final int FILE_BYTES_RANGE = 4 * 1024 * 1024;
+
+    /**
+     * The dimensions reported for every photo
+     */
+    private static final int PHOTO_WIDTH = 4032;
+
+    /**
+     * The dimensions reported for every photo
+     */
+    private static final int PHOTO_HEIGHT = 3024;
+
+    /**
+     * The size of the small thumbnail, in pixels
+     */
+    static final int THUMBNAIL_SIZE = 96;
+
+    /**
+     * The timestamp reported for every item, fixed so responses are identical from run to run
+     */
+    private static final String TIMESTAMP = "2016-01-01T00:00:00Z";
+
+    /**
+     * The items by id, including deleted ones, guarded by this drive
+     */
+    private final Map<String, Entry> mItems = new HashMap<>();
+
+    /**
+     * The items by the sequence number of their last change, guarded by this drive
+     */
+    private final TreeMap<Long, Entry> mChanges = new TreeMap<>();
+
+    /**
+     * The id of the root folder
+     */
+    private final String mRootId;
+
+    /**
+     * The number given to the next new item
+     */
+    private int mNextNumber = FIRST_ITEM_NUMBER;
+
+    /**
+     * The sequence number of the last change
+     */
+    private long mSequence;
+
+    /**
+     * Default constructor
+     * @param seed The seed the drive is generated from
+     * @param foldersPerFolder The number of subfolders in every folder above the deepest level
+     * @param filesPerFolder The number of photos in every folder
+     * @param depth The number of folder levels below the root
+     */
+    SyntheticDrive(final long seed, final int foldersPerFolder, final int filesPerFolder, final int depth) {
+        final Random random = new Random(seed);
+        mRootId = add(null, ROOT_ALIAS, true, 0, null).mId;
+        populate(random, mRootId, foldersPerFolder, filesPerFolder, depth);
+    }
+
+    /**
+     * Generates the contents of a folder
+     * @param random The source of file sizes
+     * @param folderId The folder to fill
+     * @param foldersPerFolder The number of subfolders
+     * @param filesPerFolder The number of photos
+     * @param depth The number of folder levels still to generate
+     */
+    private void populate(final Random random,
+                          final String folderId,
+                          final int foldersPerFolder,
+                          final int filesPerFolder,
+                          final int depth) {
+        for (int i = 0; i < filesPerFolder; i++) {
+            add(folderId,
+                String.format(Locale.ROOT, "Photo %04d.jpg", i),
+                false,
+                MIN_FILE_BYTES + random.nextInt(FILE_BYTES_RANGE),
+                null);
+        }
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < foldersPerFolder; i++) {
+            final Entry folder = add(folderId, String.format(Locale.ROOT, "Folder %d", i), true, 0, null);
+            populate(random, folder.mId, foldersPerFolder, filesPerFolder, depth - 1);
+        }
+    }
+
+    /**
+     * Adds an item
+     * @param parentId The id of the parent folder, or null for the root
+     * @param name The name
+     * @param folder If the item is a folder
+     * @param size The size in bytes
+     * @param content The content, or null for generated content of the given size
+     * @return The item
+     */
+    private synchronized Entry add(final String parentId,
+                                   final String name,
+                                   final boolean folder,
+                                   final long size,
+                                   final byte[] content) {
+        final Entry entry = new Entry(DRIVE_ID + "!" + mNextNumber++, parentId, name, folder);
+        entry.mSize = size;
+        entry.mContent = content;
+        mItems.put(entry.mId, entry);
+        touch(entry);
+        if (parentId != null) {
+            mItems.get(parentId).mChildren.add(entry.mId);
+        }
+        return entry;
+    }
+
+    /**
+     * Records a change to an item
+     * @param entry The item
+     */
+    private synchronized void touch(final Entry entry) {
+        mChanges.remove(entry.mSequence);
+        entry.mSequence = ++mSequence;
+        entry.mVersion++;
+        mChanges.put(entry.mSequence, entry);
+    }
+
+    /**
+     * Resolves the root alias
+     * @param id An item id or the root alias
+     * @return The item id
+     */
+    String resolve(final String id) {
+        if (ROOT_ALIAS.equals(id)) {
+            return mRootId;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the ids of every live folder
+     * @return The folder ids
+     */
+    synchronized List<String> getFolderIds() {
+        final List<String> ids = new ArrayList<>();
+        for (final Entry entry : mItems.values()) {
+            if (entry.mFolder && !entry.mDeleted) {
+                ids.add(entry.mId);
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Renders a live item
+     * @param id The item id or the root alias
+     * @param baseUrl The url of the server, for the thumbnail and download links
+     * @param withThumbnails If the thumbnails are included
+     * @return The item json, or null if there is no such live item
+     */
+    synchronized JsonObject getItem(final String id, final String baseUrl, final boolean withThumbnails) {
+        final Entry entry = mItems.get(resolve(id));
+        if (entry == null || entry.mDeleted) {
+            return null;
+        }
+        return render(entry, baseUrl, withThumbnails);
+    }
+
+    /**
+     * Renders a range of the live children of a folder
+     * @param id The folder id or the root alias
+     * @param baseUrl The url of the server, for the thumbnail and download links
+     * @param withThumbnails If the thumbnails are included
+     * @param skip The number of children to skip
+     * @param top The largest number of children to render
+     * @return The children json, or null if there is no such live folder
+     */
+    synchronized JsonArray getChildren(final String id,
+                                       final String baseUrl,
+                                       final boolean withThumbnails,
+                                       final int skip,
+                                       final int top) {
+        final Entry folder = mItems.get(resolve(id));
+        if (folder == null || folder.mDeleted || !folder.mFolder) {
+            return null;
+        }
+        final JsonArray children = new JsonArray();
+        final int end = Math.min(folder.mChildren.size(), skip + top);
+        for (int i = skip; i < end; i++) {
+            children.add(render(mItems.get(folder.mChildren.get(i)), baseUrl, withThumbnails));
+        }
+        return children;
+    }
+
+    /**
+     * Gets the number of live children of a folder
+     * @param id The folder id or the root alias
+     * @return The number of children, or -1 if there is no such live folder
+     */
+    synchronized int getChildCount(final String id) {
+        final Entry folder = mItems.get(resolve(id));
+        if (folder == null || folder.mDeleted || !folder.mFolder) {
+            return -1;
+        }
+        return folder.mChildren.size();
+    }
+
+    /**
+     * Renders the items changed since a delta token, oldest change first
+     * @param token The token, 0 for every item
+     * @param baseUrl The url of the server, for the thumbnail and download links
+     * @param max The largest number of items to render
+     * @return The changed items
+     */
+    synchronized JsonArray getChanges(final long token, final String baseUrl, final int max) {
+        final JsonArray changes = new JsonArray();
+        for (final Entry entry : mChanges.tailMap(token, false).values()) {
+            if (changes.size() == max) {
+                break;
+            }
+            changes.add(render(entry, baseUrl, false));
+        }
+        return changes;
+    }
+
+    /**
+     * Gets the sequence number of the last change reported in a range of changes
+     * @param token The token the range started after
+     * @param max The largest number of items in the range
+     * @return The sequence number, which is the token for the rest of the changes
+     */
+    synchronized long getChangesEnd(final long token, final int max) {
+        long end = token;
+        int count = 0;
+        for (final Long sequence : mChanges.tailMap(token, false).keySet()) {
+            if (count++ == max) {
+                break;
+            }
+            end = sequence;
+        }
+        return end;
+    }
+
+    /**
+     * Gets the sequence number of the last change
+     * @return The sequence number, the delta token for the drive as it is now
+     */
+    synchronized long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Gets the content of a file
+     * @param id The item id
+     * @return The content, or null if there is no such live file
+     */
+    synchronized byte[] getContent(final String id) {
+        final Entry entry = mItems.get(id);
+        if (entry == null || entry.mDeleted || entry.mFolder) {
+            return null;
+        }
+        if (entry.mContent != null) {
+            return entry.mContent;
+        }
+        final byte[] content = new byte[(int) entry.mSize];
+        new Random(entry.mSequence).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Creates a folder
+     * @param parentId The parent folder id or the root alias
+     * @param name The name
+     * @return The folder json, or null if there is no such live parent folder
+     */
+    synchronized JsonObject createFolder(final String parentId, final String name) {
+        if (getChildCount(parentId) < 0) {
+            return null;
+        }
+        return render(add(resolve(parentId), name, true, 0, null), null, false);
+    }
+
+    /**
+     * Creates or replaces a file
+     * @param parentId The parent folder id or the root alias
+     * @param name The name
+     * @param content The content
+     * @param baseUrl The url of the server, for the thumbnail and download links
+     * @return The file json, or null if there is no such live parent folder
+     */
+    synchronized JsonObject putFile(final String parentId,
+                                    final String name,
+                                    final byte[] content,
+                                    final String baseUrl) {
+        if (getChildCount(parentId) < 0) {
+            return null;
+        }
+        final Entry folder = mItems.get(resolve(parentId));
+        for (final String childId : folder.mChildren) {
+            final Entry child = mItems.get(childId);
+            if (child.mName.equals(name) && !child.mFolder) {
+                child.mSize = content.length;
+                child.mContent = content;
+                touch(child);
+                return render(child, baseUrl, false);
+            }
+        }
+        return render(add(folder.mId, name, false, content.length, content), baseUrl, false);
+    }
+
+    /**
+     * Renames an item
+     * @param id The item id
+     * @param name The new name
+     * @return The item json, or null if there is no such live item
+     */
+    synchronized JsonObject rename(final String id, final String name) {
+        final Entry entry = mItems.get(resolve(id));
+        if (entry == null || entry.mDeleted) {
+            return null;
+        }
+        entry.mName = name;
+        touch(entry);
+        return render(entry, null, false);
+    }
+
+    /**
+     * Deletes an item and everything below it
+     * @param id The item id
+     * @return If there was such a live item
+     */
+    synchronized boolean delete(final String id) {
+        final Entry entry = mItems.get(id);
+        if (entry == null || entry.mDeleted || id.equals(mRootId)) {
+            return false;
+        }
+        mItems.get(entry.mParentId).mChildren.remove(id);
+        markDeleted(entry);
+        return true;
+    }
+
+    /**
+     * Marks an item and its descendants deleted
+     * @param entry The item
+     */
+    private void markDeleted(final Entry entry) {
+        for (final String childId : entry.mChildren) {
+            markDeleted(mItems.get(childId));
+        }
+        entry.mChildren.clear();
+        entry.mDeleted = true;
+        entry.mContent = null;
+        touch(entry);
+    }
+
+    /**
+     * Renders an item the way the service does
+     * @param entry The item
+     * @param baseUrl The url of the server, for the thumbnail and download links, or null to leave them out
+     * @param withThumbnails If the thumbnails are included
+     * @return The item json
+     */
+    private JsonObject render(final Entry entry, final String baseUrl, final boolean withThumbnails) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("id", entry.mId);
+        json.addProperty("name", entry.mName);
+
+        final JsonObject parent = new JsonObject();
+        parent.addProperty("driveId", DRIVE_ID);
+        if (entry.mParentId != null) {
+            parent.addProperty("id", entry.mParentId);
+        }
+        json.add("parentReference", parent);
+
+        if (entry.mDeleted) {
+            json.add("deleted", new JsonObject());
+            return json;
+        }
+
+        json.addProperty("eTag", "\"{" + entry.mId + "}," + entry.mVersion + "\"");
+        json.addProperty("cTag", "\"c:{" + entry.mId + "}," + entry.mVersion + "\"");
+        json.addProperty("size", entry.mSize);
+        json.addProperty("createdDateTime", TIMESTAMP);
+        json.addProperty("lastModifiedDateTime", TIMESTAMP);
+        if (entry.mParentId == null) {
+            json.add("root", new JsonObject());
+        }
+
+        if (entry.mFolder) {
+            final JsonObject folder = new JsonObject();
+            folder.addProperty("childCount", entry.mChildren.size());
+            json.add("folder", folder);
+            return json;
+        }
+
+        final JsonObject file = new JsonObject();
+        file.addProperty("mimeType", "image/jpeg");
+        json.add("file", file);
+        final JsonObject image = new JsonObject();
+        image.addProperty("width", PHOTO_WIDTH);
+        image.addProperty("height", PHOTO_HEIGHT);
+        json.add("image", image);
+        if (baseUrl == null) {
+            return json;
+        }
+
+        json.addProperty("@content.downloadUrl", baseUrl + "download/" + entry.mId);
+        if (withThumbnails) {
+            final JsonObject small = new JsonObject();
+            small.addProperty("url", baseUrl + "thumbnails/" + entry.mId + "/small?v=" + entry.mVersion);
+            small.addProperty("width", THUMBNAIL_SIZE);
+            small.addProperty("height", THUMBNAIL_SIZE);
+            final JsonObject set = new JsonObject();
+            set.addProperty("id", "0");
+            set.add("small", small);
+            final JsonArray thumbnails = new JsonArray();
+            thumbnails.add(set);
+            json.add("thumbnails", thumbnails);
+        }
+        return json;
+    }
+
+    /**
+     * An item of the drive
+     */
+    private static final class Entry {
+
+        /**
+         * The item id
+         */
+        private final String mId;
+
+        /**
+         * The id of the parent folder, null for the root
+         */
+        private final String mParentId;
+
+        /**
+         * If the item is a folder
+         */
+        private final boolean mFolder;
+
+        /**
+         * The ids of the children, in creation order
+         */
+        private final List<String> mChildren = new ArrayList<>();
+
+        /**
+         * The name
+         */
+        private String mName;
+
+        /**
+         * The size in bytes
+         */
+        private long mSize;
+
+        /**
+         * The uploaded content, null for generated content
+         */
+        private byte[] mContent;
+
+        /**
+         * The number of times the item has changed, used in its tags
+         */
+        private int mVersion;
+
+        /**
+         * The sequence number of the last change
+         */
+        private long mSequence;
+
+        /**
+         * If the item has been deleted
+         */
+        private boolean mDeleted;
+
+        /**
+         * Default constructor
+         * @param id The item id
+         * @param parentId The id of the parent folder, null for the root
+         * @param name The name
+         * @param folder If the item is a folder
+         */
+        Entry(final String id, final String parentId, final String name, final boolean folder) {
+            mId = id;
+            mParentId = parentId;
+            mName = name;
+            mFolder = folder;
+        }
+    }
+}
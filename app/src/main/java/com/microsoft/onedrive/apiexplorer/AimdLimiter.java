@@ -0,0 +1,127 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+/**
+ * Limits how many requests run at once, halving the limit whenever the service throttles and growing
+ * it back by about one request per window of healthy responses.
+ *
+ * Requests that were already running when the limit was halved were sent at the old rate, so their
+ * throttled responses do not halve it again; the limit drops at most once per window.
+ */
+class AimdLimiter {
+
+    /**
+     * The factor the limit is multiplied by when a request is throttled
+     */
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /**
+     * The lowest the limit may go
+     */
+    private final int mMinLimit;
+
+    /**
+     * The highest the limit may go
+     */
+    private final int mMaxLimit;
+
+    /**
+     * The current limit, fractional so it can grow a little with every healthy response
+     */
+    private double mLimit;
+
+    /**
+     * The number of requests currently running
+     */
+    private int mInFlight;
+
+    /**
+     * The number of requests started so far, used to tell which requests started after a decrease
+     */
+    private long mStarted;
+
+    /**
+     * The value of {@link #mStarted} at the last decrease
+     */
+    private long mDecreasedAt;
+
+    /**
+     * Default constructor
+     * @param initialLimit The starting limit
+     * @param minLimit The lowest the limit may go
+     * @param maxLimit The highest the limit may go
+     */
+    AimdLimiter(final int initialLimit, final int minLimit, final int maxLimit) {
+        mLimit = initialLimit;
+        mMinLimit = minLimit;
+        mMaxLimit = maxLimit;
+    }
+
+    /**
+     * Waits until another request may run
+     * @return The ticket of the request, to be handed back to {@link #release(long, boolean)}
+     * @throws InterruptedException If interrupted while waiting
+     */
+    synchronized long acquire() throws InterruptedException {
+        while (mInFlight >= (int) mLimit) {
+            wait();
+        }
+        mInFlight++;
+        return mStarted++;
+    }
+
+    /**
+     * Marks a request as finished and adjusts the limit
+     * @param ticket The ticket the request got from {@link #acquire()}
+     * @param throttled If the service throttled the request
+     */
+    synchronized void release(final long ticket, final boolean throttled) {
+        mInFlight--;
+        if (throttled) {
+            if (ticket >= mDecreasedAt) {
+                mLimit = Math.max(mMinLimit, mLimit * DECREASE_FACTOR);
+                mDecreasedAt = mStarted;
+            }
+        } else {
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Marks a request as finished without a response, leaving the limit as it is
+     */
+    synchronized void release() {
+        mInFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Gets the current limit
+     * @return The number of requests that may run at once
+     */
+    synchronized int getLimit() {
+        return (int) mLimit;
+    }
+}
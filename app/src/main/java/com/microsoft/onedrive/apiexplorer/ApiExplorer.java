@@ -23,10 +23,14 @@
 package com.microsoft.onedrive.apiexplorer;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import com.google.gson.GsonBuilder;
+
 /**
  * OneDrive Api Explorer
  */
@@ -68,6 +72,13 @@ public class ApiExplorer extends Activity implements ItemFragment.OnFragmentInte
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(final Menu menu) {
+        final AsyncLogger logger = ((BaseApplication) getApplication()).getLogger();
+        menu.findItem(R.id.action_verbose_logging).setChecked(logger.isLoggable(Log.DEBUG));
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     /**
      * Handle options menu selection
      * @param item The menu item that was selected
@@ -87,10 +98,43 @@ public class ApiExplorer extends Activity implements ItemFragment.OnFragmentInte
             finish();
             return true;
         }
+        if (id == R.id.action_verbose_logging) {
+            final AsyncLogger logger = ((BaseApplication) getApplication()).getLogger();
+            if (item.isChecked()) {
+                logger.setMinPriority(Log.INFO);
+            } else {
+                logger.setMinPriority(Log.DEBUG);
+            }
+            return true;
+        }
+        if (id == R.id.action_share_metrics) {
+            shareMetrics();
+            return true;
+        }
+        if (id == R.id.action_reset_metrics) {
+            ((BaseApplication) getApplication()).getMetricsRegistry().reset();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Shares a json snapshot of the request metrics, so builds and networks can be compared
+     */
+    private void shareMetrics() {
+        final BaseApplication application = (BaseApplication) getApplication();
+        final String snapshot = new GsonBuilder()
+                .setPrettyPrinting()
+                .create()
+                .toJson(application.getMetricsRegistry().snapshot());
+        final Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/json");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_subject));
+        intent.putExtra(Intent.EXTRA_TEXT, snapshot);
+        startActivity(Intent.createChooser(intent, getString(R.string.share_metrics)));
+    }
+
     @Override
     public void onBackPressed() {
         if (getFragmentManager().getBackStackEntryCount() == 0) {
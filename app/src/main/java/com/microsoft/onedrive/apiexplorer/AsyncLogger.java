@@ -0,0 +1,398 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.util.Log;
+
+import com.microsoft.graph.logger.ILogger;
+import com.microsoft.graph.logger.LoggerLevel;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log lines from a background thread so logging never formats or blocks on the calling thread.
+ *
+ * Callers claim a slot in a fixed ring buffer with a single compare and set and leave the format
+ * string and its arguments there; the writer thread formats and prints them. Lines below the current
+ * level are dropped before a slot is claimed or anything is formatted, though the caller has already
+ * boxed primitive arguments and built the varargs array by then, so hot paths logging more than two
+ * arguments check {@link #isLoggable(int)} first. When the buffer is full new lines are dropped and
+ * counted rather than making the caller wait. The writer parks while the buffer is empty and is woken
+ * by the first line published after it went to sleep.
+ */
+class AsyncLogger implements ILogger {
+
+    /**
+     * The tag used for lines logged by the Graph SDK
+     */
+    private static final String GRAPH_TAG = "Graph";
+
+    /**
+     * The number of slots in the ring buffer, a power of two
+     */
+    private static final int CAPACITY = 1024;
+
+    /**
+     * Masks a sequence number down to a slot index
+     */
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * The slots of the ring buffer, null when free
+     */
+    private final AtomicReferenceArray<Entry> mSlots = new AtomicReferenceArray<>(CAPACITY);
+
+    /**
+     * The sequence number of the next slot to claim
+     */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /**
+     * The sequence number of the next slot to write, only advanced by the writer
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * The number of lines dropped because the buffer was full
+     */
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * If the writer is parked or about to park, so the next line published has to wake it
+     */
+    private volatile boolean mSleeping;
+
+    /**
+     * The lowest priority written, one of the {@link Log} priorities
+     */
+    private volatile int mMinPriority;
+
+    /**
+     * The thread writing the buffered lines
+     */
+    private final Thread mWriter;
+
+    /**
+     * Default constructor
+     * @param minPriority The lowest priority written, one of the {@link Log} priorities
+     */
+    AsyncLogger(final int minPriority) {
+        mMinPriority = minPriority;
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainForever();
+            }
+        }, getClass().getSimpleName());
+        mWriter.setDaemon(true);
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mWriter.start();
+    }
+
+    /**
+     * Sets the lowest priority written
+     * @param minPriority One of the {@link Log} priorities
+     */
+    void setMinPriority(final int minPriority) {
+        mMinPriority = minPriority;
+    }
+
+    /**
+     * Gets the lowest priority written
+     * @return One of the {@link Log} priorities
+     */
+    int getMinPriority() {
+        return mMinPriority;
+    }
+
+    /**
+     * Checks if lines of a priority are written, to skip building arguments that would be thrown away
+     * @param priority One of the {@link Log} priorities
+     * @return If the lines would be written
+     */
+    boolean isLoggable(final int priority) {
+        return priority >= mMinPriority;
+    }
+
+    /**
+     * Logs a line
+     * @param priority One of the {@link Log} priorities
+     * @param tag The tag
+     * @param message The message
+     */
+    void log(final int priority, final String tag, final String message) {
+        if (isLoggable(priority)) {
+            enqueue(new Entry(priority, tag, message, null, null));
+        }
+    }
+
+    /**
+     * Logs a line formatted on the writer thread
+     * @param priority One of the {@link Log} priorities
+     * @param tag The tag
+     * @param format The format string
+     * @param arg The argument of the format string
+     */
+    void log(final int priority, final String tag, final String format, final Object arg) {
+        if (isLoggable(priority)) {
+            enqueue(new Entry(priority, tag, format, new Object[] {arg}, null));
+        }
+    }
+
+    /**
+     * Logs a line formatted on the writer thread
+     * @param priority One of the {@link Log} priorities
+     * @param tag The tag
+     * @param format The format string
+     * @param arg0 The first argument of the format string
+     * @param arg1 The second argument of the format string
+     */
+    void log(final int priority, final String tag, final String format, final Object arg0, final Object arg1) {
+        if (isLoggable(priority)) {
+            enqueue(new Entry(priority, tag, format, new Object[] {arg0, arg1}, null));
+        }
+    }
+
+    /**
+     * Logs a line formatted on the writer thread
+     * @param priority One of the {@link Log} priorities
+     * @param tag The tag
+     * @param format The format string
+     * @param args The arguments of the format string
+     */
+    void log(final int priority, final String tag, final String format, final Object... args) {
+        if (isLoggable(priority)) {
+            enqueue(new Entry(priority, tag, format, args, null));
+        }
+    }
+
+    /**
+     * Logs a line with the stack trace of an error
+     * @param priority One of the {@link Log} priorities
+     * @param tag The tag
+     * @param message The message
+     * @param throwable The error
+     */
+    void log(final int priority, final String tag, final String message, final Throwable throwable) {
+        if (isLoggable(priority)) {
+            enqueue(new Entry(priority, tag, message, null, throwable));
+        }
+    }
+
+    @Override
+    public void setLoggingLevel(final LoggerLevel level) {
+        if (level == LoggerLevel.Debug) {
+            mMinPriority = Log.DEBUG;
+        } else {
+            mMinPriority = Log.ERROR;
+        }
+    }
+
+    @Override
+    public LoggerLevel getLoggingLevel() {
+        if (isLoggable(Log.DEBUG)) {
+            return LoggerLevel.Debug;
+        }
+        return LoggerLevel.Error;
+    }
+
+    @Override
+    public void logDebug(final String message) {
+        log(Log.DEBUG, GRAPH_TAG, message);
+    }
+
+    @Override
+    public void logError(final String message, final Throwable throwable) {
+        log(Log.ERROR, GRAPH_TAG, message, throwable);
+    }
+
+    /**
+     * Claims a slot for a line, or drops it if the buffer is full
+     * @param entry The line
+     */
+    private void enqueue(final Entry entry) {
+        while (true) {
+            final long head = mHead.get();
+            final long used = head - mTail.get();
+            if (used >= CAPACITY) {
+                mDropped.incrementAndGet();
+                return;
+            }
+            if (mHead.compareAndSet(head, head + 1)) {
+                mSlots.set((int) head & MASK, entry);
+                if (mSleeping) {
+                    LockSupport.unpark(mWriter);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes buffered lines until the process ends, parking while there are none
+     */
+    private void drainForever() {
+        while (true) {
+            if (drain()) {
+                continue;
+            }
+            mSleeping = true;
+            // Checked again after announcing the sleep, so a line claimed in between is never missed
+            if (mTail.get() == mHead.get()) {
+                LockSupport.park(this);
+            } else {
+                // A line has been claimed but not yet published
+                Thread.yield();
+            }
+            mSleeping = false;
+        }
+    }
+
+    /**
+     * Writes every line published so far
+     * @return If anything was written
+     */
+    private boolean drain() {
+        boolean wrote = false;
+        long tail = mTail.get();
+        while (tail < mHead.get()) {
+            final int index = (int) tail & MASK;
+            final Entry entry = mSlots.get(index);
+            if (entry == null) {
+                // Claimed but not yet published, pick it up on the next pass
+                break;
+            }
+            mSlots.set(index, null);
+            tail++;
+            mTail.lazySet(tail);
+            entry.write();
+            wrote = true;
+        }
+
+        final long dropped = mDropped.getAndSet(0);
+        if (dropped > 0) {
+            Log.w(getClass().getSimpleName(), dropped + " log lines dropped, the buffer was full");
+        }
+        return wrote;
+    }
+
+    /**
+     * Decides which of the calls on a hot path get logged
+     */
+    static final class Sampler {
+
+        /**
+         * One call in this many is logged
+         */
+        private final int mRate;
+
+        /**
+         * The number of calls so far
+         */
+        private final AtomicLong mCalls = new AtomicLong();
+
+        /**
+         * Default constructor
+         * @param rate One call in this many is logged
+         */
+        Sampler(final int rate) {
+            mRate = rate;
+        }
+
+        /**
+         * Counts a call
+         * @return If this call should be logged
+         */
+        boolean sample() {
+            return mCalls.getAndIncrement() % mRate == 0;
+        }
+    }
+
+    /**
+     * A line waiting to be written
+     */
+    private static final class Entry {
+
+        /**
+         * One of the {@link Log} priorities
+         */
+        private final int mPriority;
+
+        /**
+         * The tag
+         */
+        private final String mTag;
+
+        /**
+         * The message, or the format string when there are arguments
+         */
+        private final String mMessage;
+
+        /**
+         * The arguments of the format string, or null for a plain message
+         */
+        private final Object[] mArgs;
+
+        /**
+         * The error whose stack trace is written after the message, or null
+         */
+        private final Throwable mThrowable;
+
+        /**
+         * Default constructor
+         * @param priority One of the {@link Log} priorities
+         * @param tag The tag
+         * @param message The message, or the format string when there are arguments
+         * @param args The arguments of the format string, or null for a plain message
+         * @param throwable The error whose stack trace is written after the message, or null
+         */
+        Entry(final int priority,
+              final String tag,
+              final String message,
+              final Object[] args,
+              final Throwable throwable) {
+            mPriority = priority;
+            mTag = tag;
+            mMessage = message;
+            mArgs = args;
+            mThrowable = throwable;
+        }
+
+        /**
+         * Formats and writes this line
+         */
+        void write() {
+            String message = mMessage;
+            if (mArgs != null) {
+                message = String.format(Locale.ROOT, mMessage, mArgs);
+            }
+            if (mThrowable != null) {
+                message = message + '\n' + Log.getStackTraceString(mThrowable);
+            }
+            Log.println(mPriority, mTag, message);
+        }
+    }
+}
@@ -25,14 +25,15 @@ package com.microsoft.onedrive.apiexplorer;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
+import android.content.pm.ApplicationInfo;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.provider.Settings;
-import android.util.LruCache;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.microsoft.graph.authentication.IAuthenticationAdapter;
+import com.microsoft.graph.authentication.IAuthenticationProvider;
 import com.microsoft.graph.authentication.MSAAuthAndroidAdapter;
 import com.microsoft.graph.concurrency.ICallback;
 import com.microsoft.graph.core.ClientException;
@@ -40,24 +41,74 @@ import com.microsoft.graph.core.DefaultClientConfig;
 import com.microsoft.graph.core.IClientConfig;
 import com.microsoft.graph.extensions.GraphServiceClient;
 import com.microsoft.graph.extensions.IGraphServiceClient;
-import com.microsoft.graph.logger.LoggerLevel;
+import com.microsoft.graph.http.DefaultHttpProvider;
+import com.microsoft.graph.http.IHttpProvider;
+import com.microsoft.graph.logger.ILogger;
 
+import java.io.File;
 import java.util.concurrent.atomic.AtomicReference;
 
+import okhttp3.OkHttpClient;
+
 /**
  * Base application
  */
 public class BaseApplication extends Application {
 
     /**
-     * The number of thumbnails to cache
+     * The maximum number of bytes of thumbnails to keep on disk
+     */
+    private static final long MAX_DISK_THUMBNAIL_CACHE_BYTES = 20L * 1024 * 1024;
+
+    /**
+     * The directory within the cache directory that holds thumbnails
      */
-    private static final int MAX_IMAGE_CACHE_SIZE = 300;
+    private static final String THUMBNAIL_CACHE_DIRECTORY = "thumbnails";
 
     /**
      * Thumbnail cache
      */
-    private LruCache<String, Bitmap> mImageCache;
+    private ThumbnailCache mImageCache;
+
+    /**
+     * Thumbnail loader
+     */
+    private ThumbnailLoader mThumbnailLoader;
+
+    /**
+     * The http client shared by every request
+     */
+    private OkHttpClient mHttpClient;
+
+    /**
+     * The logger for the application and the Graph SDK, writing from a background thread
+     */
+    private final AsyncLogger mLogger = new AsyncLogger(Log.INFO);
+
+    /**
+     * The sizes of the responses received by the http client
+     */
+    private final TransferStats mTransferStats = new TransferStats(mLogger);
+
+    /**
+     * The metrics of the requests made by the http client
+     */
+    private final MetricsRegistry mMetricsRegistry = new MetricsRegistry();
+
+    /**
+     * Delta checkpoint store
+     */
+    private DeltaCheckpointStore mDeltaCheckpointStore;
+
+    /**
+     * Operation queue
+     */
+    private OperationQueue mOperationQueue;
+
+    /**
+     * Item change bus
+     */
+    private final ItemChangeBus mItemChangeBus = new ItemChangeBus();
 
     /**
      * The service instance
@@ -70,9 +121,9 @@ public class BaseApplication extends Application {
     private ConnectivityManager mConnectivityManager;
 
     /**
-     * The authentication adapter
+     * The authentication adapter, serving cached tokens that are renewed in the background
      */
-    private IAuthenticationAdapter mAuthenticationAdapter;
+    private TokenManager mAuthenticationAdapter;
 
     /**
      * What to do when the application starts
@@ -80,8 +131,11 @@ public class BaseApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            mLogger.setMinPriority(Log.DEBUG);
+        }
         mConnectivityManager = (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
-        mAuthenticationAdapter = new MSAAuthAndroidAdapter(BaseApplication.this) {
+        final IAuthenticationAdapter msaAdapter = new MSAAuthAndroidAdapter(BaseApplication.this) {
             @Override
             public String getClientId() {
                 return "8b83f251-463f-42d3-b6c4-308eb5fc1c43";
@@ -96,6 +150,23 @@ public class BaseApplication extends Application {
                 };
             }
         };
+        mAuthenticationAdapter = new TokenManager(msaAdapter, this, mLogger);
+        DeltaSync.schedule(this);
+    }
+
+    /**
+     * Release cached memory when the system asks for it
+     * @param level The trim level
+     */
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        synchronized (this) {
+            if (mImageCache != null) {
+                mImageCache.onTrimMemory(level);
+                Log.i(getClass().getSimpleName(), mImageCache.getStatistics());
+            }
+        }
     }
 
     /**
@@ -103,19 +174,46 @@ public class BaseApplication extends Application {
      * @return the newly created configuration
      */
     private IClientConfig createConfig() {
-        final IClientConfig config = DefaultClientConfig.createWithAuthenticationProvider(getAuthenticationAdapter());
-        config.getLogger().setLoggingLevel(LoggerLevel.Debug);
+        final IAuthenticationAdapter authenticationAdapter = getAuthenticationAdapter();
+        final OkHttpConnectionFactory connectionFactory = new OkHttpConnectionFactory(getHttpClient());
+        final IClientConfig config = new DefaultClientConfig() {
+            @Override
+            public IAuthenticationProvider getAuthenticationProvider() {
+                return authenticationAdapter;
+            }
+
+            @Override
+            public ILogger getLogger() {
+                return mLogger;
+            }
+
+            @Override
+            public IHttpProvider getHttpProvider() {
+                final DefaultHttpProvider httpProvider = (DefaultHttpProvider) super.getHttpProvider();
+                httpProvider.setConnectionFactory(connectionFactory);
+                return httpProvider;
+            }
+        };
         return config;
     }
 
+    /**
+     * Checks if the device has a network connection
+     *
+     * @return if there is an active, connected network
+     */
+    boolean isConnected() {
+        final NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
     /**
      * Navigates the user to the wifi settings if there is a connection problem
      *
      * @return if the wifi activity was navigated to
      */
     synchronized boolean goToWifiSettingsIfDisconnected() {
-        final NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
-        if (info == null || !info.isConnected()) {
+        if (!isConnected()) {
             Toast.makeText(this, getString(R.string.wifi_unavailable_error_message), Toast.LENGTH_LONG).show();
             final Intent intent = new Intent(Settings.ACTION_WIFI_SETTINGS);
             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
@@ -166,13 +264,105 @@ public class BaseApplication extends Application {
      *
      * @return the image loader
      */
-    public synchronized LruCache<String, Bitmap> getImageCache() {
+    public synchronized ThumbnailCache getImageCache() {
         if (mImageCache == null) {
-            mImageCache = new LruCache<>(BaseApplication.MAX_IMAGE_CACHE_SIZE);
+            mImageCache = ThumbnailCache.create(this);
         }
         return mImageCache;
     }
 
+    /**
+     * Gets the http client shared by every request of this application
+     *
+     * @return the http client
+     */
+    synchronized OkHttpClient getHttpClient() {
+        if (mHttpClient == null) {
+            mHttpClient = SharedHttpClient.create(mTransferStats, mMetricsRegistry, mAuthenticationAdapter);
+        }
+        return mHttpClient;
+    }
+
+    /**
+     * Gets the sizes of the responses received by the http client
+     *
+     * @return the transfer stats
+     */
+    TransferStats getTransferStats() {
+        return mTransferStats;
+    }
+
+    /**
+     * Gets the logger for the application and the Graph SDK
+     *
+     * @return the logger
+     */
+    AsyncLogger getLogger() {
+        return mLogger;
+    }
+
+    /**
+     * Gets the metrics of the requests made by the http client
+     *
+     * @return the metrics registry
+     */
+    MetricsRegistry getMetricsRegistry() {
+        return mMetricsRegistry;
+    }
+
+    /**
+     * Gets the thumbnail loader for this application
+     *
+     * @return the thumbnail loader
+     */
+    synchronized ThumbnailLoader getThumbnailLoader() {
+        if (mThumbnailLoader == null) {
+            final DiskThumbnailCache diskCache =
+                    new DiskThumbnailCache(new File(getCacheDir(), THUMBNAIL_CACHE_DIRECTORY),
+                                           MAX_DISK_THUMBNAIL_CACHE_BYTES);
+            mThumbnailLoader = new ThumbnailLoader(getImageCache(),
+                                                   diskCache,
+                                                   getHttpClient(),
+                                                   new BitmapDecoder(getImageCache().getPool()),
+                                                   getResources().getDimensionPixelSize(R.dimen.thumbnail_size),
+                                                   mLogger);
+        }
+        return mThumbnailLoader;
+    }
+
+    /**
+     * Gets the delta checkpoint store for this application
+     *
+     * @return the delta checkpoint store
+     */
+    synchronized DeltaCheckpointStore getDeltaCheckpointStore() {
+        if (mDeltaCheckpointStore == null) {
+            mDeltaCheckpointStore = new DeltaCheckpointStore(this);
+        }
+        return mDeltaCheckpointStore;
+    }
+
+    /**
+     * Gets the queue that sends changes to the service, including those made offline
+     *
+     * @return the operation queue
+     */
+    synchronized OperationQueue getOperationQueue() {
+        if (mOperationQueue == null) {
+            mOperationQueue = new OperationQueue(this);
+        }
+        return mOperationQueue;
+    }
+
+    /**
+     * Gets the bus that delivers item changes to the views showing them
+     *
+     * @return the item change bus
+     */
+    ItemChangeBus getItemChangeBus() {
+        return mItemChangeBus;
+    }
+
     public synchronized IAuthenticationAdapter getAuthenticationAdapter() {
         return mAuthenticationAdapter;
     }
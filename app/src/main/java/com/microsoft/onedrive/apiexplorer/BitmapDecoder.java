@@ -0,0 +1,116 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Decodes compressed images down to the size they will be displayed at, reusing pooled bitmaps
+ */
+class BitmapDecoder {
+
+    /**
+     * The mime type of images that never carry an alpha channel
+     */
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+
+    /**
+     * The pool decode targets are taken from
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * Default constructor
+     * @param pool The pool decode targets are taken from
+     */
+    BitmapDecoder(final BitmapPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Decodes an image so that it is no smaller than the target size
+     * @param bytes The compressed image
+     * @param targetWidth The width the image will be displayed at
+     * @param targetHeight The height the image will be displayed at
+     * @return The decoded image, or null if it could not be decoded
+     */
+    Bitmap decode(final byte[] bytes, final int targetWidth, final int targetHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inMutable = true;
+        if (JPEG_MIME_TYPE.equals(options.outMimeType)) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        } else {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+
+        final int sampledWidth = divideRoundingUp(options.outWidth, options.inSampleSize);
+        final int sampledHeight = divideRoundingUp(options.outHeight, options.inSampleSize);
+        options.inBitmap = mPool.get(sampledWidth, sampledHeight, options.inPreferredConfig);
+        try {
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        } catch (final IllegalArgumentException e) {
+            Log.d(getClass().getSimpleName(), "Unable to reuse pooled bitmap, allocating a new one", e);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+    }
+
+    /**
+     * Finds the largest power of two sample size that keeps the image at least as large as the target
+     * @param width The width of the source image
+     * @param height The height of the source image
+     * @param targetWidth The width the image will be displayed at
+     * @param targetHeight The height the image will be displayed at
+     * @return The sample size
+     */
+    static int calculateSampleSize(final int width, final int height, final int targetWidth, final int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Divides two positive numbers, rounding up
+     * @param value The dividend
+     * @param divisor The divisor
+     * @return The rounded up quotient
+     */
+    private static int divideRoundingUp(final int value, final int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
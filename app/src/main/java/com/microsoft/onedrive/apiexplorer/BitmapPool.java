@@ -0,0 +1,158 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable bitmaps, bucketed by allocation size, that can be reused as decode targets
+ */
+class BitmapPool {
+
+    /**
+     * The maximum number of bytes of bitmaps to hold
+     */
+    private final int mMaxBytes;
+
+    /**
+     * The pooled bitmaps, bucketed by their allocation size rounded up to a power of two
+     */
+    private final TreeMap<Integer, Deque<Bitmap>> mBuckets = new TreeMap<>();
+
+    /**
+     * The number of bytes held by the pool
+     */
+    private int mSize;
+
+    /**
+     * Default constructor
+     * @param maxBytes The maximum number of bytes of bitmaps to hold
+     */
+    BitmapPool(final int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Offers a bitmap that is no longer displayed to the pool
+     * @param bitmap The bitmap
+     */
+    synchronized void put(final Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxBytes) {
+            return;
+        }
+        while (mSize + bytes > mMaxBytes && !mBuckets.isEmpty()) {
+            removeFrom(mBuckets.firstKey());
+        }
+
+        final int bucket = bucketFor(bytes);
+        Deque<Bitmap> bitmaps = mBuckets.get(bucket);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mBuckets.put(bucket, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        mSize += bytes;
+    }
+
+    /**
+     * Takes a bitmap from the pool that can hold an image of the given dimensions
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param config The pixel configuration of the image
+     * @return A reusable bitmap, or null if none fits
+     */
+    synchronized Bitmap get(final int width, final int height, final Bitmap.Config config) {
+        final int needed = width * height * bytesPerPixel(config);
+        for (final Map.Entry<Integer, Deque<Bitmap>> entry : mBuckets.tailMap(bucketFor(needed)).entrySet()) {
+            for (final Bitmap candidate : entry.getValue()) {
+                if (candidate.getConfig() == config && candidate.getAllocationByteCount() >= needed) {
+                    entry.getValue().remove(candidate);
+                    if (entry.getValue().isEmpty()) {
+                        mBuckets.remove(entry.getKey());
+                    }
+                    mSize -= candidate.getAllocationByteCount();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops every pooled bitmap
+     */
+    synchronized void clear() {
+        mBuckets.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Drops the oldest bitmap of a bucket
+     * @param bucket The bucket
+     */
+    private void removeFrom(final int bucket) {
+        final Deque<Bitmap> bitmaps = mBuckets.get(bucket);
+        final Bitmap removed = bitmaps.removeLast();
+        mSize -= removed.getAllocationByteCount();
+        if (bitmaps.isEmpty()) {
+            mBuckets.remove(bucket);
+        }
+    }
+
+    /**
+     * Gets the bucket for an allocation size
+     * @param bytes The allocation size
+     * @return The allocation size rounded up to a power of two
+     */
+    private static int bucketFor(final int bytes) {
+        final int highest = Integer.highestOneBit(Math.max(bytes, 1));
+        if (highest == bytes) {
+            return highest;
+        }
+        return highest << 1;
+    }
+
+    /**
+     * Gets the number of bytes used for each pixel of a configuration
+     * @param config The configuration
+     * @return The number of bytes per pixel
+     */
+    private static int bytesPerPixel(final Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return Integer.SIZE / Byte.SIZE;
+    }
+}
@@ -0,0 +1,142 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Reads and writes the ISO 8601 timestamps the service uses, such as 2015-06-30T17:54:32.587Z
+ */
+class CalendarTypeAdapter extends TypeAdapter<Calendar> {
+
+    /**
+     * The pattern of a timestamp without its fraction of a second and time zone
+     */
+    private static final String DATE_TIME_PATTERN = "yyyy-MM-dd'T'HH:mm:ss";
+
+    /**
+     * The pattern of a date without a time
+     */
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
+
+    /**
+     * The pattern timestamps are written in
+     */
+    private static final String WRITE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+    /**
+     * The number of digits of the fraction of a second that are kept
+     */
+    private static final int MILLISECOND_DIGITS = 3;
+
+    /**
+     * Pads a short fraction of a second out to milliseconds
+     */
+    private static final String FRACTION_PADDING = "000";
+
+    /**
+     * The time zone of timestamps that end in Z
+     */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Override
+    public void write(final JsonWriter out, final Calendar value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(WRITE_PATTERN, Locale.ROOT);
+        format.setTimeZone(UTC);
+        out.value(format.format(value.getTime()));
+    }
+
+    @Override
+    public Calendar read(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        final String value = in.nextString();
+        try {
+            return parse(value);
+        } catch (final ParseException | NumberFormatException e) {
+            throw new JsonSyntaxException("Unable to parse timestamp " + value, e);
+        }
+    }
+
+    /**
+     * Parses a timestamp
+     * @param value The timestamp
+     * @return The calendar
+     * @throws ParseException If the timestamp is not ISO 8601
+     */
+    static Calendar parse(final String value) throws ParseException {
+        final int time = value.indexOf('T');
+        if (time == -1) {
+            final SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN, Locale.ROOT);
+            format.setTimeZone(UTC);
+            final Calendar calendar = Calendar.getInstance(UTC);
+            calendar.setTime(format.parse(value));
+            return calendar;
+        }
+
+        TimeZone zone = UTC;
+        int zoneStart = value.length();
+        if (value.endsWith("Z")) {
+            zoneStart = value.length() - 1;
+        } else {
+            final int sign = Math.max(value.lastIndexOf('+'), value.lastIndexOf('-'));
+            if (sign > time) {
+                zone = TimeZone.getTimeZone("GMT" + value.substring(sign));
+                zoneStart = sign;
+            }
+        }
+
+        String local = value.substring(0, zoneStart);
+        int milliseconds = 0;
+        final int fraction = local.indexOf('.');
+        if (fraction != -1) {
+            milliseconds = Integer.parseInt((local.substring(fraction + 1) + FRACTION_PADDING)
+                                                .substring(0, MILLISECOND_DIGITS));
+            local = local.substring(0, fraction);
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat(DATE_TIME_PATTERN, Locale.ROOT);
+        format.setTimeZone(zone);
+        final Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTime(format.parse(local));
+        calendar.add(Calendar.MILLISECOND, milliseconds);
+        return calendar;
+    }
+}
@@ -0,0 +1,153 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.microsoft.graph.extensions.DriveItem;
+import com.microsoft.graph.serializer.ISerializer;
+
+import java.io.IOException;
+import java.util.Calendar;
+
+/**
+ * Reads a collection response straight off the wire, one item at a time.
+ *
+ * Each member of the value array is bound to a {@link DriveItem} as it is reached, so there is never a
+ * string or a json tree of the whole page in memory. The json tree of an item is only built when the
+ * caller asks to keep it.
+ */
+final class CollectionPageReader {
+
+    /**
+     * The name of the array holding the items
+     */
+    private static final String VALUE = "value";
+
+    /**
+     * The name of the link to the next page
+     */
+    private static final String NEXT_LINK = "@odata.nextLink";
+
+    /**
+     * The name of the link for the next incremental delta in the last page of a delta
+     */
+    private static final String DELTA_LINK = "@odata.deltaLink";
+
+    /**
+     * The name of the delta token, used when the service does not return a delta link
+     */
+    private static final String DELTA_TOKEN = "@delta.token";
+
+    /**
+     * Binds items, with the timestamp format the service uses
+     */
+    private static final Gson GSON = new GsonBuilder()
+        .registerTypeHierarchyAdapter(Calendar.class, new CalendarTypeAdapter())
+        .create();
+
+    /**
+     * Receives the contents of a page as they are read
+     */
+    interface Sink {
+
+        /**
+         * Called for each item, in response order
+         * @param item The item
+         * @param raw The json of the item, or null when it is not kept
+         */
+        void onItem(DriveItem item, JsonObject raw);
+
+        /**
+         * Called with the link to the next page
+         * @param nextLink The link
+         */
+        void onNextLink(String nextLink);
+
+        /**
+         * Called with the delta link or token on the last page of a delta
+         * @param deltaLink The link or token
+         */
+        void onDeltaLink(String deltaLink);
+    }
+
+    /**
+     * Default constructor
+     */
+    private CollectionPageReader() {
+    }
+
+    /**
+     * Reads a collection response
+     * @param reader The reader positioned at the start of the response
+     * @param serializer The serializer that backs items whose json is kept
+     * @param keepRaw If the json of each item is kept
+     * @param sink Receives the items and links
+     * @throws IOException If the response could not be read
+     */
+    static void read(final JsonReader reader,
+                     final ISerializer serializer,
+                     final boolean keepRaw,
+                     final Sink sink) throws IOException {
+        final JsonParser parser = new JsonParser();
+        String deltaToken = null;
+        boolean sawDeltaLink = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (VALUE.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (keepRaw) {
+                        final JsonObject raw = parser.parse(reader).getAsJsonObject();
+                        final DriveItem item = GSON.fromJson(raw, DriveItem.class);
+                        item.setRawObject(serializer, raw);
+                        sink.onItem(item, raw);
+                    } else {
+                        sink.onItem(GSON.<DriveItem>fromJson(reader, DriveItem.class), null);
+                    }
+                }
+                reader.endArray();
+            } else if (NEXT_LINK.equals(name)) {
+                sink.onNextLink(reader.nextString());
+            } else if (DELTA_LINK.equals(name)) {
+                sink.onDeltaLink(reader.nextString());
+                sawDeltaLink = true;
+            } else if (DELTA_TOKEN.equals(name)) {
+                deltaToken = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!sawDeltaLink && deltaToken != null) {
+            sink.onDeltaLink(deltaToken);
+        }
+    }
+}
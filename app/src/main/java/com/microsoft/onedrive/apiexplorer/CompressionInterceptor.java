@@ -0,0 +1,154 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.zip.Inflater;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Asks for compressed responses and decodes them as they are read.
+ *
+ * Setting Accept-Encoding here turns off the transparent gzip handling of the http client, so the
+ * compressed bytes can be counted before they are inflated. The body is never buffered whole, the
+ * json parser reads straight from the inflating stream.
+ */
+class CompressionInterceptor implements Interceptor {
+
+    /**
+     * The request header listing the encodings we accept
+     */
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    /**
+     * The response header naming the encoding of the body
+     */
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * The response header giving the encoded length of the body
+     */
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    /**
+     * The request header asking for part of a body, the offsets of which refer to the encoded bytes
+     */
+    private static final String RANGE = "Range";
+
+    /**
+     * The gzip encoding
+     */
+    private static final String GZIP = "gzip";
+
+    /**
+     * The zlib encoding
+     */
+    private static final String DEFLATE = "deflate";
+
+    /**
+     * The http method whose responses never have a body
+     */
+    private static final String HEAD = "HEAD";
+
+    /**
+     * Where transfers are recorded
+     */
+    private final TransferStats mStats;
+
+    /**
+     * Default constructor
+     * @param stats Where transfers are recorded
+     */
+    CompressionInterceptor(final TransferStats stats) {
+        mStats = stats;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        if (request.header(ACCEPT_ENCODING) != null || request.header(RANGE) != null) {
+            return chain.proceed(request);
+        }
+
+        final Response response = chain.proceed(request.newBuilder()
+                                                        .header(ACCEPT_ENCODING, GZIP + ", " + DEFLATE)
+                                                        .build());
+        final ResponseBody body = response.body();
+        if (body == null || !hasBody(request, response)) {
+            return response;
+        }
+
+        final String encoding = response.header(CONTENT_ENCODING);
+        final CountingSource wire = new CountingSource(body.source(), null);
+        final Source decoded;
+        if (encoding == null) {
+            decoded = wire;
+        } else if (GZIP.equalsIgnoreCase(encoding)) {
+            decoded = new GzipSource(wire);
+        } else if (DEFLATE.equalsIgnoreCase(encoding)) {
+            decoded = new InflaterSource(wire, new Inflater());
+        } else {
+            return response;
+        }
+
+        final HttpUrl url = request.url();
+        final CountingSource metered = new CountingSource(decoded, new CountingSource.Listener() {
+            @Override
+            public void onFinished(final long decodedBytes) {
+                mStats.record(url, encoding, wire.getCount(), decodedBytes);
+            }
+        });
+        if (encoding == null) {
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(metered)))
+                    .build();
+        }
+        return response.newBuilder()
+                .removeHeader(CONTENT_ENCODING)
+                .removeHeader(CONTENT_LENGTH)
+                .body(ResponseBody.create(body.contentType(), -1L, Okio.buffer(metered)))
+                .build();
+    }
+
+    /**
+     * Checks if a response carries a body, an empty compressed body would fail to decode
+     * @param request The request
+     * @param response The response
+     * @return If there is a body to decode
+     */
+    private static boolean hasBody(final Request request, final Response response) {
+        return !HEAD.equals(request.method())
+               && response.code() != HttpURLConnection.HTTP_NO_CONTENT
+               && response.code() != HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+}
@@ -0,0 +1,109 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+/**
+ * Counts the bytes read through a source and reports the total once it is exhausted or closed
+ */
+class CountingSource extends ForwardingSource {
+
+    /**
+     * Receives the total once the source is finished with
+     */
+    interface Listener {
+
+        /**
+         * Called once, when the source is exhausted or closed
+         * @param byteCount The bytes read
+         */
+        void onFinished(long byteCount);
+    }
+
+    /**
+     * Receives the total, or null if nobody is waiting for it
+     */
+    private final Listener mListener;
+
+    /**
+     * The bytes read so far
+     */
+    private long mCount;
+
+    /**
+     * If the total has been reported
+     */
+    private boolean mFinished;
+
+    /**
+     * Default constructor
+     * @param delegate The source to count
+     * @param listener Receives the total, or null if nobody is waiting for it
+     */
+    CountingSource(final Source delegate, final Listener listener) {
+        super(delegate);
+        mListener = listener;
+    }
+
+    /**
+     * Gets the bytes read so far
+     * @return The byte count
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public long read(final Buffer sink, final long byteCount) throws IOException {
+        final long read = super.read(sink, byteCount);
+        if (read == -1) {
+            finish();
+        } else {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+
+    /**
+     * Reports the total, once
+     */
+    private void finish() {
+        if (!mFinished) {
+            mFinished = true;
+            if (mListener != null) {
+                mListener.onFinished(mCount);
+            }
+        }
+    }
+}
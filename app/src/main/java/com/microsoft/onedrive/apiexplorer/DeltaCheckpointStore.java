@@ -0,0 +1,333 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.graph.extensions.DriveItem;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the items seen through delta together with where each delta left off.
+ *
+ * The changes of a page and the link to the page after it are written in one transaction, so an
+ * enumeration that is interrupted resumes from the last page that was fully applied. Only one
+ * enumeration of an item runs at a time in the process, whoever starts one claims the item first.
+ */
+class DeltaCheckpointStore extends SQLiteOpenHelper {
+
+    /**
+     * The name of the database file
+     */
+    private static final String DATABASE_NAME = "delta.db";
+
+    /**
+     * The schema version
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    /**
+     * The table holding one checkpoint per enumerated item
+     */
+    private static final String CHECKPOINTS = "checkpoints";
+
+    /**
+     * The table holding the items seen through delta
+     */
+    private static final String ITEMS = "items";
+
+    /**
+     * The column holding the id of the enumerated item
+     */
+    private static final String ROOT_ID = "root_id";
+
+    /**
+     * The column holding the link to the next page of an unfinished enumeration
+     */
+    private static final String NEXT_LINK = "next_link";
+
+    /**
+     * The column holding the delta link or token of the last finished enumeration
+     */
+    private static final String DELTA_LINK = "delta_link";
+
+    /**
+     * The column holding the id of an item
+     */
+    private static final String ITEM_ID = "item_id";
+
+    /**
+     * The column holding the name of an item
+     */
+    private static final String NAME = "name";
+
+    /**
+     * The column holding the json of an item, null when the page was read without it
+     */
+    private static final String JSON = "json";
+
+    /**
+     * The ids of the items being enumerated in this process
+     */
+    private final Set<String> mEnumerating = new HashSet<>();
+
+    /**
+     * If every item is claimed, or about to be once the running enumerations finish
+     */
+    private boolean mAllClaimed;
+
+    /**
+     * Default constructor
+     * @param context The context to open the database in
+     */
+    DeltaCheckpointStore(final Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CHECKPOINTS + " ("
+                   + ROOT_ID + " TEXT PRIMARY KEY, "
+                   + NEXT_LINK + " TEXT, "
+                   + DELTA_LINK + " TEXT)");
+        db.execSQL("CREATE TABLE " + ITEMS + " ("
+                   + ROOT_ID + " TEXT NOT NULL, "
+                   + ITEM_ID + " TEXT NOT NULL, "
+                   + NAME + " TEXT, "
+                   + JSON + " TEXT, "
+                   + "PRIMARY KEY (" + ROOT_ID + ", " + ITEM_ID + "))");
+    }
+
+    @Override
+    public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + CHECKPOINTS);
+        db.execSQL("DROP TABLE IF EXISTS " + ITEMS);
+        onCreate(db);
+    }
+
+    /**
+     * Claims an item for enumeration, waiting for an enumeration already running to finish
+     * @param rootId The id of the item to enumerate
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void beginEnumeration(final String rootId) throws InterruptedException {
+        synchronized (mEnumerating) {
+            while (mAllClaimed || !mEnumerating.add(rootId)) {
+                mEnumerating.wait();
+            }
+        }
+    }
+
+    /**
+     * Claims every item, blocking new claims and waiting for the running enumerations to finish
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void beginEnumerationOfAll() throws InterruptedException {
+        synchronized (mEnumerating) {
+            while (mAllClaimed) {
+                mEnumerating.wait();
+            }
+            mAllClaimed = true;
+            try {
+                while (!mEnumerating.isEmpty()) {
+                    mEnumerating.wait();
+                }
+            } catch (final InterruptedException e) {
+                mAllClaimed = false;
+                mEnumerating.notifyAll();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Releases every item claimed with {@link #beginEnumerationOfAll()}
+     */
+    void endEnumerationOfAll() {
+        synchronized (mEnumerating) {
+            mAllClaimed = false;
+            mEnumerating.notifyAll();
+        }
+    }
+
+    /**
+     * Claims an item for enumeration unless one is already running
+     * @param rootId The id of the item to enumerate
+     * @return If the item was claimed
+     */
+    boolean tryBeginEnumeration(final String rootId) {
+        synchronized (mEnumerating) {
+            return !mAllClaimed && mEnumerating.add(rootId);
+        }
+    }
+
+    /**
+     * Releases an item claimed for enumeration
+     * @param rootId The id of the enumerated item
+     */
+    void endEnumeration(final String rootId) {
+        synchronized (mEnumerating) {
+            mEnumerating.remove(rootId);
+            mEnumerating.notifyAll();
+        }
+    }
+
+    /**
+     * Gets where the next enumeration of an item should start
+     * @param rootId The id of the enumerated item
+     * @return The link to the next page of an unfinished enumeration, otherwise the delta link or
+     * token of the last finished one, or null if the item has never been enumerated
+     */
+    String getResumeLink(final String rootId) {
+        final Cursor cursor = getReadableDatabase().query(CHECKPOINTS,
+                                                          new String[] {NEXT_LINK, DELTA_LINK},
+                                                          ROOT_ID + " = ?",
+                                                          new String[] {rootId},
+                                                          null,
+                                                          null,
+                                                          null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            if (!cursor.isNull(0)) {
+                return cursor.getString(0);
+            }
+            return cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads back the json of an item seen through delta
+     * @param rootId The id of the enumerated item
+     * @param itemId The id of the item
+     * @return The json of the item, or null if it is not known or was applied without its json
+     */
+    JsonObject getJson(final String rootId, final String itemId) {
+        final Cursor cursor = getReadableDatabase().query(ITEMS,
+                                                          new String[] {JSON},
+                                                          ROOT_ID + " = ? AND " + ITEM_ID + " = ?",
+                                                          new String[] {rootId, itemId},
+                                                          null,
+                                                          null,
+                                                          null);
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return null;
+            }
+            return new JsonParser().parse(cursor.getString(0)).getAsJsonObject();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Applies the changes of a page and records where the enumeration continues, atomically
+     * @param rootId The id of the enumerated item
+     * @param page The page
+     */
+    void applyPage(final String rootId, final DriveItemPage page) {
+        final List<DriveItem> items = page.getItems();
+        final List<JsonObject> rawItems = page.getRawItems();
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                final DriveItem item = items.get(i);
+                if (item.deleted != null) {
+                    db.delete(ITEMS, ROOT_ID + " = ? AND " + ITEM_ID + " = ?", new String[] {rootId, item.id});
+                } else {
+                    final ContentValues values = new ContentValues();
+                    values.put(ROOT_ID, rootId);
+                    values.put(ITEM_ID, item.id);
+                    values.put(NAME, item.name);
+                    if (rawItems != null) {
+                        values.put(JSON, rawItems.get(i).toString());
+                    }
+                    db.insertWithOnConflict(ITEMS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            }
+
+            final ContentValues checkpoint = new ContentValues();
+            checkpoint.put(ROOT_ID, rootId);
+            if (page.getNextLink() != null) {
+                checkpoint.put(NEXT_LINK, page.getNextLink());
+            } else {
+                checkpoint.putNull(NEXT_LINK);
+                if (page.getDeltaLink() != null) {
+                    checkpoint.put(DELTA_LINK, page.getDeltaLink());
+                }
+            }
+            if (db.update(CHECKPOINTS, checkpoint, ROOT_ID + " = ?", new String[] {rootId}) == 0) {
+                db.insert(CHECKPOINTS, null, checkpoint);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forgets the checkpoint and the items of an enumerated item, so the next enumeration is a full one,
+     * to be called with the item claimed
+     * @param rootId The id of the enumerated item
+     */
+    void reset(final String rootId) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(CHECKPOINTS, ROOT_ID + " = ?", new String[] {rootId});
+            db.delete(ITEMS, ROOT_ID + " = ?", new String[] {rootId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forgets every checkpoint and item, to be called with every item claimed
+     */
+    void resetAll() {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(CHECKPOINTS, null, null);
+            db.delete(ITEMS, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
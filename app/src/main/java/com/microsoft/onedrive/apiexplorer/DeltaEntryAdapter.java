@@ -0,0 +1,213 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.AsyncTask;
+import android.support.v7.widget.RecyclerView;
+import android.util.LruCache;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shows delta entries one per row, formatting each entry only when it is bound.
+ *
+ * Only the ids of the entries are kept for the whole enumeration. The most recently received entries
+ * are kept in a bounded window, and entries that have left it are read back from the checkpoint store
+ * when they are scrolled to.
+ */
+class DeltaEntryAdapter extends RecyclerView.Adapter<DeltaEntryAdapter.ViewHolder> {
+
+    /**
+     * The number of formatted entries to keep around for scrolling back
+     */
+    private static final int FORMATTED_CACHE_SIZE = 64;
+
+    /**
+     * The number of received entries to keep before they have to be read back from the store
+     */
+    private static final int WINDOW_SIZE = 256;
+
+    /**
+     * The ids of the entries received so far, in order
+     */
+    private final List<String> mIds = new ArrayList<>();
+
+    /**
+     * The most recently received entries, keyed by position
+     */
+    private final LruCache<Integer, JsonObject> mWindow = new LruCache<>(WINDOW_SIZE);
+
+    /**
+     * The most recently bound entries, formatted, keyed by position
+     */
+    private final LruCache<Integer, String> mFormatted = new LruCache<>(FORMATTED_CACHE_SIZE);
+
+    /**
+     * The positions being read back from the store
+     */
+    private final Set<Integer> mLoading = new HashSet<>();
+
+    /**
+     * The store entries that have left the window are read back from
+     */
+    private DeltaCheckpointStore mStore;
+
+    /**
+     * The id of the enumerated item
+     */
+    private String mRootId;
+
+    /**
+     * Incremented on every clear, so reads started before it are ignored
+     */
+    private int mGeneration;
+
+    /**
+     * Sets where entries that have left the window are read back from
+     * @param store The checkpoint store the entries are applied to
+     * @param rootId The id of the enumerated item
+     */
+    void setSource(final DeltaCheckpointStore store, final String rootId) {
+        mStore = store;
+        mRootId = rootId;
+    }
+
+    /**
+     * Adds a page of entries to the end of the list
+     * @param entries The entries
+     */
+    void append(final List<JsonObject> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        final int start = mIds.size();
+        for (final JsonObject entry : entries) {
+            mWindow.put(mIds.size(), entry);
+            mIds.add(entry.get("id").getAsString());
+        }
+        notifyItemRangeInserted(start, entries.size());
+    }
+
+    /**
+     * Removes every entry
+     */
+    void clear() {
+        mGeneration++;
+        mIds.clear();
+        mWindow.evictAll();
+        mFormatted.evictAll();
+        mLoading.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mIds.size();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(final ViewGroup parent, final int viewType) {
+        final View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.json_line_resource, parent, false);
+        return new ViewHolder((TextView) view);
+    }
+
+    @Override
+    public void onBindViewHolder(final ViewHolder holder, final int position) {
+        String formatted = mFormatted.get(position);
+        if (formatted == null) {
+            final JsonObject entry = mWindow.get(position);
+            if (entry == null) {
+                holder.mEntry.setText(null);
+                load(position);
+                return;
+            }
+            formatted = FormattedJson.format(entry).toString();
+            mFormatted.put(position, formatted);
+        }
+        holder.mEntry.setText(formatted);
+    }
+
+    /**
+     * Reads an entry that has left the window back from the store and rebinds its row
+     * @param position The position of the entry
+     */
+    private void load(final int position) {
+        if (!mLoading.add(position)) {
+            return;
+        }
+        final int generation = mGeneration;
+        final String itemId = mIds.get(position);
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(final Void... params) {
+                JsonObject entry = mStore.getJson(mRootId, itemId);
+                if (entry == null) {
+                    // The item has been deleted since, which is what its entry would now say
+                    entry = new JsonObject();
+                    entry.addProperty("id", itemId);
+                    entry.add("deleted", new JsonObject());
+                }
+                return FormattedJson.format(entry).toString();
+            }
+
+            @Override
+            protected void onPostExecute(final String formatted) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mLoading.remove(position);
+                mFormatted.put(position, formatted);
+                notifyItemChanged(position);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Holds the view of a single entry
+     */
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+
+        /**
+         * The formatted entry
+         */
+        private final TextView mEntry;
+
+        /**
+         * Default constructor
+         * @param entry The entry view
+         */
+        ViewHolder(final TextView entry) {
+            super(entry);
+            mEntry = entry;
+        }
+    }
+}
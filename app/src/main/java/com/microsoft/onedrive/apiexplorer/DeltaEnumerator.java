@@ -0,0 +1,374 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.microsoft.graph.concurrency.ICallback;
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.core.GraphErrorCodes;
+import com.microsoft.graph.extensions.DriveItemDeltaCollectionRequestBuilder;
+import com.microsoft.graph.extensions.IDriveItemDeltaCollectionRequest;
+import com.microsoft.graph.extensions.IGraphServiceClient;
+import com.microsoft.graph.options.Option;
+import com.microsoft.graph.options.QueryOption;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Enumerates every page of a delta, fetching the next page while the current one is applied.
+ *
+ * One thread downloads and parses pages into a small queue, a second thread hands them to the listener,
+ * so memory is bounded by the queue no matter how many pages the delta has.
+ */
+class DeltaEnumerator {
+
+    /**
+     * The number of fetched pages that may wait to be applied
+     */
+    private static final int PAGE_QUEUE_CAPACITY = 2;
+
+    /**
+     * The number of milliseconds in a second
+     */
+    private static final double MILLISECONDS_PER_SECOND = 1000.0;
+
+    /**
+     * The fields requested for each changed item, enough to route and display it in a folder view
+     */
+    private static final String DELTA_SELECT = "id,name,deleted,parentReference,eTag,cTag,"
+                                               + "file,folder,audio,image,photo,specialFolder,video";
+
+    /**
+     * The query option carrying a saved delta token
+     */
+    private static final String TOKEN_OPTION = "token";
+
+    /**
+     * The scheme prefix that tells a saved delta link from a bare token
+     */
+    private static final String LINK_PREFIX = "http";
+
+    /**
+     * Receives the pages of a delta
+     */
+    interface Listener {
+
+        /**
+         * Applies a page of changes, called on the enumeration thread in page order
+         * @param page The page
+         */
+        void onPage(DriveItemPage page);
+
+        /**
+         * Called on the main thread after each page has been applied
+         * @param pageCount The number of pages applied so far
+         * @param itemCount The number of items applied so far
+         * @param itemsPerSecond The number of items applied per second since the enumeration started
+         */
+        void onProgress(int pageCount, long itemCount, double itemsPerSecond);
+
+        /**
+         * Called on the enumeration thread once it has stopped for good, whether the enumeration finished,
+         * failed or was cancelled, so no page is being or will be applied after it
+         */
+        void onStopped();
+    }
+
+    /**
+     * Fetches and reads each page
+     */
+    private final StreamingPageFetcher mFetcher;
+
+    /**
+     * The request for the first page
+     */
+    private final IDriveItemDeltaCollectionRequest mFirstRequest;
+
+    /**
+     * The listener that applies each page
+     */
+    private final Listener mListener;
+
+    /**
+     * Called on the main thread with the delta link or token once every page has been applied
+     */
+    private final ICallback<String> mCallback;
+
+    /**
+     * The pages that have been fetched but not yet applied
+     */
+    private final BlockingQueue<Slot> mPages = new ArrayBlockingQueue<>(PAGE_QUEUE_CAPACITY);
+
+    /**
+     * Posts progress and completion to the main thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The thread fetching pages
+     */
+    private Thread mFetchThread;
+
+    /**
+     * The thread applying pages
+     */
+    private Thread mApplyThread;
+
+    /**
+     * If the enumeration has been cancelled
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * Default constructor
+     * @param fetcher Fetches and reads each page
+     * @param firstRequest The request for the first page
+     * @param listener The listener that applies each page
+     * @param callback Called on the main thread with the delta link or token once every page has been applied
+     */
+    DeltaEnumerator(final StreamingPageFetcher fetcher,
+                    final IDriveItemDeltaCollectionRequest firstRequest,
+                    final Listener listener,
+                    final ICallback<String> callback) {
+        mFetcher = fetcher;
+        mFirstRequest = firstRequest;
+        mListener = listener;
+        mCallback = callback;
+    }
+
+    /**
+     * Builds the request for the first page of a delta
+     * @param client The client to build the request with
+     * @param itemId The id of the item to enumerate
+     * @param resumeLink The saved link or delta token, or null for a full enumeration
+     * @return The request
+     */
+    static IDriveItemDeltaCollectionRequest buildFirstRequest(final IGraphServiceClient client,
+                                                              final String itemId,
+                                                              final String resumeLink) {
+        if (resumeLink != null && resumeLink.startsWith(LINK_PREFIX)) {
+            return new DriveItemDeltaCollectionRequestBuilder(resumeLink, client, null).buildRequest();
+        }
+
+        final List<Option> options = new ArrayList<>();
+        if (resumeLink != null) {
+            options.add(new QueryOption(TOKEN_OPTION, resumeLink));
+        }
+        return client
+            .getMe()
+            .getDrive()
+            .getItems(itemId)
+            .getDelta()
+            .buildRequest(options)
+            .select(DELTA_SELECT);
+    }
+
+    /**
+     * Starts enumerating
+     */
+    synchronized void start() {
+        if (mFetchThread != null) {
+            throw new IllegalStateException("Enumeration already started");
+        }
+        mFetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetch();
+            }
+        }, "DeltaEnumerator fetch");
+        mApplyThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                apply();
+            }
+        }, "DeltaEnumerator apply");
+        mFetchThread.start();
+        mApplyThread.start();
+    }
+
+    /**
+     * Stops enumerating, no further pages or callbacks will be delivered. A page already being applied
+     * is applied in full, {@link Listener#onStopped()} tells when that is done.
+     */
+    synchronized void cancel() {
+        mCancelled = true;
+        if (mFetchThread != null) {
+            mFetchThread.interrupt();
+            mApplyThread.interrupt();
+        }
+    }
+
+    /**
+     * Fetches pages one after another until the last page or a failure
+     */
+    private void fetch() {
+        IDriveItemDeltaCollectionRequest request = mFirstRequest;
+        try {
+            while (request != null && !mCancelled) {
+                final DriveItemPage page;
+                try {
+                    page = mFetcher.fetch(request);
+                } catch (final ClientException e) {
+                    mPages.put(new Slot(null, e));
+                    return;
+                } catch (final RuntimeException e) {
+                    mPages.put(new Slot(null, new ClientException("Unable to fetch delta page",
+                                                                  e,
+                                                                  GraphErrorCodes.GeneralException)));
+                    return;
+                }
+                mPages.put(new Slot(page, null));
+                if (page.getNextLink() == null) {
+                    request = null;
+                } else {
+                    request = mFetcher.buildLinkRequest(page.getNextLink());
+                }
+            }
+            mPages.put(new Slot(null, null));
+        } catch (final InterruptedException ignored) {
+            Log.d(getClass().getSimpleName(), "Delta fetch interrupted");
+        }
+    }
+
+    /**
+     * Applies fetched pages in order and reports progress and completion
+     */
+    private void apply() {
+        final long startTime = SystemClock.elapsedRealtime();
+        int pageCount = 0;
+        long itemCount = 0;
+        String syncState = null;
+        try {
+            while (!mCancelled) {
+                final Slot slot = mPages.take();
+                if (slot.mError != null) {
+                    postFailure(slot.mError);
+                    return;
+                }
+                if (slot.mPage == null) {
+                    postSuccess(syncState);
+                    return;
+                }
+
+                try {
+                    mListener.onPage(slot.mPage);
+                } catch (final RuntimeException e) {
+                    mFetchThread.interrupt();
+                    postFailure(new ClientException("Unable to apply delta page", e, GraphErrorCodes.GeneralException));
+                    return;
+                }
+                pageCount++;
+                itemCount += slot.mPage.getItems().size();
+                if (slot.mPage.getDeltaLink() != null) {
+                    syncState = slot.mPage.getDeltaLink();
+                }
+                final long elapsed = Math.max(SystemClock.elapsedRealtime() - startTime, 1);
+                postProgress(pageCount, itemCount, itemCount * MILLISECONDS_PER_SECOND / elapsed);
+            }
+        } catch (final InterruptedException ignored) {
+            Log.d(getClass().getSimpleName(), "Delta apply interrupted");
+        } finally {
+            mListener.onStopped();
+        }
+    }
+
+    /**
+     * Reports progress on the main thread unless cancelled
+     * @param pageCount The number of pages applied so far
+     * @param itemCount The number of items applied so far
+     * @param itemsPerSecond The number of items applied per second
+     */
+    private void postProgress(final int pageCount, final long itemCount, final double itemsPerSecond) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mListener.onProgress(pageCount, itemCount, itemsPerSecond);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports completion on the main thread unless cancelled
+     * @param syncState The delta link or token of the last page
+     */
+    private void postSuccess(final String syncState) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mCallback.success(syncState);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports a failure on the main thread unless cancelled
+     * @param error The failure
+     */
+    private void postFailure(final ClientException error) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mCallback.failure(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * A fetched page, a failure, or neither once the last page has been fetched
+     */
+    private static final class Slot {
+
+        /**
+         * The fetched page
+         */
+        private final DriveItemPage mPage;
+
+        /**
+         * The failure
+         */
+        private final ClientException mError;
+
+        /**
+         * Default constructor
+         * @param page The fetched page
+         * @param error The failure
+         */
+        Slot(final DriveItemPage page, final ClientException error) {
+            mPage = page;
+            mError = error;
+        }
+    }
+}
@@ -22,22 +22,20 @@
 
 package com.microsoft.onedrive.apiexplorer;
 
-import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.core.GraphErrorCodes;
 import com.microsoft.graph.extensions.DriveItem;
-import com.microsoft.graph.extensions.IDriveItemDeltaCollectionPage;
-import com.microsoft.graph.concurrency.ICallback;
-
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.app.Activity;
 import android.app.Fragment;
-import android.content.Context;
-import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.text.method.ScrollingMovementMethod;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -47,7 +45,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
 
 /**
  * Shows the changes of the decedents of an item
@@ -59,20 +57,60 @@ public class DeltaFragment extends Fragment {
      */
     private static final String ARG_ITEM_ID = "itemId";
 
+    /**
+     * The number of bytes in a kilobyte
+     */
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
     /**
      * The argument for the item name
      */
     private static final String ARG_ITEM_NAME_ID = "itemName";
 
     /**
-     * The max number of pages to retrieve
+     * The adapter showing the delta entries received so far
+     */
+    private final DeltaEntryAdapter mAdapter = new DeltaEntryAdapter();
+
+    /**
+     * The enumeration currently running, if any
+     */
+    private DeltaEnumerator mEnumerator;
+
+    /**
+     * Counts the enumerations started, so pages of a cancelled one are never shown
+     */
+    private int mGeneration;
+
+    /**
+     * Posts applied pages to the main thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The store the applied pages are committed to
+     */
+    private DeltaCheckpointStore mStore;
+
+    /**
+     * The bus the applied changes are published to
+     */
+    private ItemChangeBus mChangeBus;
+
+    /**
+     * The sizes of the responses received by the http client
      */
-    private static final int MAX_PAGE_COUNT = 5;
+    private TransferStats mTransferStats;
 
     /**
-     * The number of pages that have been downloaded
+     * The wire bytes counted when the current enumeration started
      */
-    private final AtomicInteger mCurrentPagesCount = new AtomicInteger(0);
+    private long mWireBytesAtStart;
+
+    /**
+     * The decoded bytes counted when the current enumeration started
+     */
+    private long mDecodedBytesAtStart;
 
     /**
      * The item id
@@ -103,6 +141,9 @@ public class DeltaFragment extends Fragment {
         super.onCreate(savedInstanceState);
 
         final BaseApplication app = (BaseApplication) getActivity().getApplication();
+        mStore = app.getDeltaCheckpointStore();
+        mChangeBus = app.getItemChangeBus();
+        mTransferStats = app.getTransferStats();
         if (app.goToWifiSettingsIfDisconnected()) {
             return;
         }
@@ -111,6 +152,7 @@ public class DeltaFragment extends Fragment {
             mItemId = getArguments().getString(ARG_ITEM_ID);
             mItemName  = getArguments().getString(ARG_ITEM_NAME_ID);
         }
+        mAdapter.setSource(mStore, mItemId);
 
         if (getView() != null) {
             getView().findViewById(android.R.id.progress).setVisibility(View.VISIBLE);
@@ -125,89 +167,164 @@ public class DeltaFragment extends Fragment {
                                 final ViewGroup container,
                                 final Bundle savedInstanceState) {
         final View view = inflater.inflate(R.layout.fragment_json_view, container, false);
-        ((TextView)view.findViewById(R.id.json)).setMovementMethod(new ScrollingMovementMethod());
+        final RecyclerView jsonView = (RecyclerView) view.findViewById(R.id.json);
+        jsonView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        jsonView.setAdapter(mAdapter);
         getActivity().setTitle(getString(R.string.delta_title, mItemName));
 
         refresh();
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        cancel();
+    }
+
     /**
      * Refresh the UI
      */
     private void refresh() {
+        cancel();
         if (getView() != null) {
             getView().findViewById(android.R.id.progress).setVisibility(View.VISIBLE);
-            final TextView jsonView = (TextView)getView().findViewById(R.id.json);
-            jsonView.setVisibility(View.INVISIBLE);
-            jsonView.setText("");
-            mCurrentPagesCount.set(0);
+            getView().findViewById(R.id.json).setVisibility(View.INVISIBLE);
+            getView().findViewById(android.R.id.empty).setVisibility(View.GONE);
+            ((TextView) getView().findViewById(R.id.delta_status)).setText(null);
         }
+        mAdapter.clear();
 
-        final String deltaToken = getDeltaInfo().getString(mItemId, null);
-        final Activity activity = getActivity();
-        ((BaseApplication) activity.getApplication())
-            .getGraphServiceClient()
-            .getMe()
-            .getDrive()
-            .getItems(mItemId)
-            .getDelta() // TODO: SERVICE does not accept tokens.
-            .buildRequest()
-            .select("id,name,deleted")
-            .get(pageHandler());
-    }
+        final int generation = mGeneration;
+        new AsyncTask<Void, Void, String>() {
+            /**
+             * If the item was claimed, so the claim has to be either kept or released
+             */
+            private boolean mBegun;
 
-    /**
-     * Create a handler for downloaded pages
-     * @return The callback to handle a fresh DeltaPage
-     */
-    private ICallback<IDriveItemDeltaCollectionPage> pageHandler() {
-        return new DefaultCallback<IDriveItemDeltaCollectionPage>(getActivity()) {
             @Override
-            public void success(final IDriveItemDeltaCollectionPage page) {
-                final View view = getView();
-                if (view == null) {
-                    return;
+            protected String doInBackground(final Void... params) {
+                try {
+                    // Waits out a background sync of the same item
+                    mStore.beginEnumeration(mItemId);
+                } catch (final InterruptedException e) {
+                    return null;
                 }
+                mBegun = true;
+                return mStore.getResumeLink(mItemId);
+            }
 
-                final View viewById = view.findViewById(R.id.json);
-                if (viewById == null) {
+            @Override
+            protected void onPostExecute(final String resumeLink) {
+                if (!mBegun) {
                     return;
                 }
+                if (generation == mGeneration && getView() != null) {
+                    // The enumeration releases the claim once it has stopped applying pages
+                    start(generation, resumeLink);
+                } else {
+                    mStore.endEnumeration(mItemId);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-                if (mCurrentPagesCount.incrementAndGet() == MAX_PAGE_COUNT) {
-                    Toast.makeText(getActivity(), R.string.max_pages_downloaded, Toast.LENGTH_LONG).show();
-                    return;
+    /**
+     * Starts enumerating the delta
+     * @param generation The enumeration being started
+     * @param resumeLink The link to continue from, or null for a full enumeration
+     */
+    private void start(final int generation, final String resumeLink) {
+        final Activity activity = getActivity();
+        final BaseApplication application = (BaseApplication) activity.getApplication();
+        mWireBytesAtStart = mTransferStats.getWireBytes();
+        mDecodedBytesAtStart = mTransferStats.getDecodedBytes();
+        mEnumerator = new DeltaEnumerator(
+            new StreamingPageFetcher(application.getGraphServiceClient(), application.getHttpClient(), true),
+            DeltaEnumerator.buildFirstRequest(application.getGraphServiceClient(), mItemId, resumeLink),
+            pageHandler(generation),
+            new DefaultCallback<String>(activity) {
+                @Override
+                public void success(final String syncState) {
+                    mEnumerator = null;
+                    if (getView() != null) {
+                        getView().findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
+                        if (mAdapter.getItemCount() == 0) {
+                            getView().findViewById(android.R.id.empty).setVisibility(View.VISIBLE);
+                        }
+                    }
                 }
 
-                final TextView jsonView = (TextView) viewById;
-                final CharSequence originalText = jsonView.getText();
-                final StringBuilder sb = new StringBuilder(originalText);
-                for (final DriveItem i : page.getCurrentPage()) {
-                    try {
-                        final int indentSpaces = 3;
-                        sb.append(new JSONObject(i.getRawObject().toString()).toString(indentSpaces));
-                    } catch (final JSONException ignored) {
-                        Log.e(getClass().getName(), "Unable to parse the response body to json");
+                @Override
+                public void failure(final ClientException error) {
+                    mEnumerator = null;
+                    if (resumeLink != null && error.isError(GraphErrorCodes.ResyncRequired)) {
+                        reset(mItemId, getString(R.string.delta_resync_required));
+                        return;
+                    }
+                    if (getView() != null) {
+                        getView().findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
+                        super.failure(error);
                     }
-                    sb.append("\n");
                 }
+            });
+        mEnumerator.start();
+    }
+
+    /**
+     * Stops the running enumeration, if any
+     */
+    private void cancel() {
+        mGeneration++;
+        if (mEnumerator != null) {
+            mEnumerator.cancel();
+            mEnumerator = null;
+        }
+    }
 
-                if (page.getCurrentPage().size() == 0) {
-                    sb.append(getString(R.string.empty_delta));
+    /**
+     * Create a handler for downloaded pages
+     * @param generation The enumeration the pages belong to
+     * @return The listener that shows each page as it is applied
+     */
+    private DeltaEnumerator.Listener pageHandler(final int generation) {
+        return new DeltaEnumerator.Listener() {
+            @Override
+            public void onPage(final DriveItemPage page) {
+                mStore.applyPage(mItemId, page);
+                mChangeBus.publish(page);
+                final List<JsonObject> entries = page.getRawItems();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mAdapter.append(entries);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onProgress(final int pageCount, final long itemCount, final double itemsPerSecond) {
+                final View view = getView();
+                if (view == null) {
+                    return;
                 }
-                jsonView.setText(sb.toString());
                 view.findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
-                jsonView.setVisibility(View.VISIBLE);
-                if (page.getNextPage() != null) {
-                    page.getNextPage()
-                        .buildRequest()
-                        .get(pageHandler());
-                }
-                final JsonElement deltaToken = page.getRawObject().get("@delta.token");
-                if (deltaToken != null) {
-                    getDeltaInfo().edit().putString(mItemId, deltaToken.getAsString()).commit();
+                if (mAdapter.getItemCount() > 0) {
+                    view.findViewById(R.id.json).setVisibility(View.VISIBLE);
                 }
+                final long wireKilobytes = (mTransferStats.getWireBytes() - mWireBytesAtStart) / BYTES_PER_KILOBYTE;
+                final long decodedKilobytes =
+                    (mTransferStats.getDecodedBytes() - mDecodedBytesAtStart) / BYTES_PER_KILOBYTE;
+                ((TextView) view.findViewById(R.id.delta_status))
+                    .setText(getString(R.string.delta_progress, itemCount, pageCount, itemsPerSecond,
+                                       wireKilobytes, decodedKilobytes));
+            }
+
+            @Override
+            public void onStopped() {
+                mStore.endEnumeration(mItemId);
             }
         };
     }
@@ -217,6 +334,7 @@ public class DeltaFragment extends Fragment {
         super.onCreateOptionsMenu(menu, inflater);
         menu.clear();
         inflater.inflate(R.menu.menu_delta_fragment, menu);
+        menu.findItem(R.id.action_sync_in_background).setChecked(DeltaSync.isSubscribed(getActivity(), mItemId));
     }
 
     @Override
@@ -225,44 +343,91 @@ public class DeltaFragment extends Fragment {
             case R.id.action_refresh:
                 refresh();
                 return true;
+            case R.id.action_stop:
+                stop();
+                return true;
             case R.id.reset_token:
                 resetToken();
                 return true;
             case R.id.reset_all_tokens:
                 resetAllTokens();
                 return true;
+            case R.id.action_sync_in_background:
+                item.setChecked(!item.isChecked());
+                DeltaSync.setSubscribed(getActivity(), mItemId, item.isChecked());
+                return true;
             default:
                 return false;
         }
     }
 
+    /**
+     * Stops the running enumeration, keeping the entries shown so far
+     */
+    private void stop() {
+        cancel();
+        if (getView() != null) {
+            getView().findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
+        }
+    }
+
     /**
      * Reset the delta token for the currently in view item
      */
     private void resetToken() {
-        getDeltaInfo().edit().putString(mItemId, null).commit();
-        Toast.makeText(getActivity(),
-                       getString(R.string.cleared_saved_delta_token, mItemName),
-                       Toast.LENGTH_LONG).show();
-        refresh();
+        reset(mItemId, getString(R.string.cleared_saved_delta_token, mItemName));
     }
 
     /**
      * Reset all delta tokens
      */
     private void resetAllTokens() {
-        getDeltaInfo().edit().clear().commit();
-        Toast.makeText(getActivity(),
-                       getString(R.string.cleared_saved_delta_tokens),
-                       Toast.LENGTH_LONG).show();
-        refresh();
+        reset(null, getString(R.string.cleared_saved_delta_tokens));
     }
 
     /**
-     * Get the view delta preferences
-     * @return The preferences
+     * Forgets saved delta state in the background, then starts a full enumeration
+     * @param itemId The item to forget the delta state of, or null for every item
+     * @param message The message to show once the state has been forgotten
      */
-    private SharedPreferences getDeltaInfo() {
-        return getActivity().getSharedPreferences("delta", Context.MODE_PRIVATE);
+    private void reset(final String itemId, final String message) {
+        cancel();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(final Void... params) {
+                if (itemId == null) {
+                    try {
+                        mStore.beginEnumerationOfAll();
+                    } catch (final InterruptedException e) {
+                        return null;
+                    }
+                    try {
+                        mStore.resetAll();
+                    } finally {
+                        mStore.endEnumerationOfAll();
+                    }
+                    return null;
+                }
+                try {
+                    mStore.beginEnumeration(itemId);
+                } catch (final InterruptedException e) {
+                    return null;
+                }
+                try {
+                    mStore.reset(itemId);
+                } finally {
+                    mStore.endEnumeration(itemId);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(final Void result) {
+                if (getView() != null) {
+                    Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
+                    refresh();
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 }
@@ -0,0 +1,217 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps track of the folders subscribed to background delta sync and schedules the sync jobs for them
+ */
+final class DeltaSync {
+
+    /**
+     * The job that syncs while the device is charging
+     */
+    static final int CHARGING_JOB_ID = 4201;
+
+    /**
+     * The job that syncs while the device is idle
+     */
+    static final int IDLE_JOB_ID = 4202;
+
+    /**
+     * How often the sync jobs run, in milliseconds
+     */
+    private static final long SYNC_INTERVAL_MILLISECONDS = 6L * 60 * 60 * 1000;
+
+    /**
+     * The shortest time between two syncs, runs of the other job inside it are skipped, in milliseconds
+     */
+    private static final long MIN_SYNC_SPACING_MILLISECONDS = SYNC_INTERVAL_MILLISECONDS / 2;
+
+    /**
+     * The initial backoff after a failed sync, in milliseconds
+     */
+    private static final long INITIAL_BACKOFF_MILLISECONDS = 60L * 1000;
+
+    /**
+     * The name of the preferences holding the subscriptions
+     */
+    private static final String PREFERENCES = "delta_sync";
+
+    /**
+     * The preference key holding the subscribed item ids
+     */
+    private static final String SUBSCRIPTIONS_KEY = "subscriptions";
+
+    /**
+     * The preference key holding the time of the last completed sync
+     */
+    private static final String LAST_SYNC_KEY = "last_sync";
+
+    /**
+     * Default constructor
+     */
+    private DeltaSync() {
+    }
+
+    /**
+     * Gets the subscribed item ids
+     * @param context The context to read the subscriptions in
+     * @return The subscribed item ids
+     */
+    static Set<String> getSubscriptions(final Context context) {
+        return Collections.unmodifiableSet(
+                getPreferences(context).getStringSet(SUBSCRIPTIONS_KEY, Collections.<String>emptySet()));
+    }
+
+    /**
+     * Checks if an item is subscribed to background sync
+     * @param context The context to read the subscriptions in
+     * @param itemId The item id
+     * @return If the item is subscribed
+     */
+    static boolean isSubscribed(final Context context, final String itemId) {
+        return getSubscriptions(context).contains(itemId);
+    }
+
+    /**
+     * Subscribes or unsubscribes an item from background sync and updates the sync jobs
+     * @param context The context to store the subscriptions in
+     * @param itemId The item id
+     * @param subscribed If the item should be subscribed
+     */
+    static void setSubscribed(final Context context, final String itemId, final boolean subscribed) {
+        final Set<String> subscriptions = new HashSet<>(getSubscriptions(context));
+        final boolean wasEmpty = subscriptions.isEmpty();
+        if (subscribed) {
+            subscriptions.add(itemId);
+        } else {
+            subscriptions.remove(itemId);
+        }
+        getPreferences(context).edit().putStringSet(SUBSCRIPTIONS_KEY, subscriptions).apply();
+        // The jobs sync every subscription, so they only change when the first is added or the last removed
+        if (wasEmpty != subscriptions.isEmpty()) {
+            schedule(context, subscriptions);
+        }
+    }
+
+    /**
+     * Checks if every subscription was synced so recently that another sync can be skipped
+     * @param context The context to read the sync time in
+     * @return If the last completed sync is recent
+     */
+    static boolean isRecentlySynced(final Context context) {
+        final long lastSync = getPreferences(context).getLong(LAST_SYNC_KEY, 0);
+        return System.currentTimeMillis() - lastSync < MIN_SYNC_SPACING_MILLISECONDS;
+    }
+
+    /**
+     * Records that every subscription has just been synced
+     * @param context The context to store the sync time in
+     */
+    static void markSynced(final Context context) {
+        getPreferences(context).edit().putLong(LAST_SYNC_KEY, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Schedules the sync jobs if anything is subscribed and they are not already pending, otherwise cancels them.
+     * Pending jobs are left alone so that calling this on every start does not reset their periodic timers.
+     * @param context The context to schedule the jobs in
+     */
+    static void schedule(final Context context) {
+        schedule(context, getSubscriptions(context));
+    }
+
+    /**
+     * Schedules the sync jobs if anything is subscribed, otherwise cancels them
+     * @param context The context to schedule the jobs in
+     * @param subscriptions The subscribed item ids
+     */
+    private static void schedule(final Context context, final Set<String> subscriptions) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        scheduleJobs(context, !subscriptions.isEmpty());
+    }
+
+    /**
+     * Schedules the periodic sync jobs that are not already pending, or cancels them, both need an unmetered network
+     * @param context The context to schedule the jobs in
+     * @param enabled If the jobs should be scheduled
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(final Context context, final boolean enabled) {
+        final JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (!enabled) {
+            scheduler.cancel(CHARGING_JOB_ID);
+            scheduler.cancel(IDLE_JOB_ID);
+            return;
+        }
+
+        final Set<Integer> pending = new HashSet<>();
+        for (final JobInfo job : scheduler.getAllPendingJobs()) {
+            pending.add(job.getId());
+        }
+
+        final ComponentName service = new ComponentName(context, DeltaSyncJobService.class);
+        if (!pending.contains(CHARGING_JOB_ID)) {
+            scheduler.schedule(new JobInfo.Builder(CHARGING_JOB_ID, service)
+                                       .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                                       .setRequiresCharging(true)
+                                       .setPeriodic(SYNC_INTERVAL_MILLISECONDS)
+                                       .setBackoffCriteria(INITIAL_BACKOFF_MILLISECONDS,
+                                                           JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                                       .setPersisted(true)
+                                       .build());
+        }
+        // Idle jobs cannot have backoff criteria, a failed run simply waits for the next idle period
+        if (!pending.contains(IDLE_JOB_ID)) {
+            scheduler.schedule(new JobInfo.Builder(IDLE_JOB_ID, service)
+                                       .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                                       .setRequiresDeviceIdle(true)
+                                       .setPeriodic(SYNC_INTERVAL_MILLISECONDS)
+                                       .setPersisted(true)
+                                       .build());
+        }
+    }
+
+    /**
+     * Gets the preferences holding the subscriptions
+     * @param context The context to open the preferences in
+     * @return The preferences
+     */
+    private static SharedPreferences getPreferences(final Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
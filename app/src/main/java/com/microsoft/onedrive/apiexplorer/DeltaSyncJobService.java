@@ -0,0 +1,233 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+
+import com.microsoft.graph.concurrency.ICallback;
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.core.GraphErrorCodes;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs incremental delta for every subscribed folder in the background, committing each page to the
+ * checkpoint store so the folders are current by the time they are opened.
+ *
+ * Each folder is claimed in the store before it is enumerated, so overlapping runs are coalesced folder
+ * by folder and a folder open in the delta view is left to the view.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class DeltaSyncJobService extends JobService {
+
+    /**
+     * The thread running the sync
+     */
+    private Thread mWorker;
+
+    /**
+     * The enumeration currently running, if any
+     */
+    private volatile DeltaEnumerator mEnumerator;
+
+    /**
+     * If the system asked the job to stop
+     */
+    private volatile boolean mStopped;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        if (DeltaSync.isRecentlySynced(this)) {
+            Log.i(getClass().getSimpleName(), "Skipping sync job " + params.getJobId() + ", already synced");
+            return false;
+        }
+
+        mStopped = false;
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final boolean synced = syncAll();
+                if (!mStopped) {
+                    jobFinished(params, !synced);
+                }
+            }
+        }, "DeltaSyncJobService");
+        mWorker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        mStopped = true;
+        final DeltaEnumerator enumerator = mEnumerator;
+        if (enumerator != null) {
+            enumerator.cancel();
+        }
+        if (mWorker != null) {
+            mWorker.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Syncs every subscribed folder in turn, skipping folders that are already being enumerated
+     * @return If every folder was synced
+     */
+    private boolean syncAll() {
+        final DeltaCheckpointStore store = ((BaseApplication) getApplication()).getDeltaCheckpointStore();
+        boolean skipped = false;
+        try {
+            for (final String itemId : DeltaSync.getSubscriptions(this)) {
+                if (mStopped) {
+                    return false;
+                }
+                if (!store.tryBeginEnumeration(itemId)) {
+                    Log.i(getClass().getSimpleName(), "Skipping " + itemId + ", already being enumerated");
+                    skipped = true;
+                    continue;
+                }
+                try {
+                    if (!sync(store, itemId)) {
+                        return false;
+                    }
+                } finally {
+                    store.endEnumeration(itemId);
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            Log.d(getClass().getSimpleName(), "Sync interrupted");
+            return false;
+        }
+        if (skipped) {
+            return false;
+        }
+        DeltaSync.markSynced(this);
+        return true;
+    }
+
+    /**
+     * Syncs a single folder from its checkpoint, starting over if the saved delta has expired
+     * @param store The checkpoint store
+     * @param itemId The folder id
+     * @return If the folder was synced
+     * @throws InterruptedException If the job was stopped while waiting
+     */
+    private boolean sync(final DeltaCheckpointStore store, final String itemId) throws InterruptedException {
+        final String resumeLink = store.getResumeLink(itemId);
+        ClientException error = enumerate(store, itemId, resumeLink);
+        if (error != null && resumeLink != null && error.isError(GraphErrorCodes.ResyncRequired)) {
+            store.reset(itemId);
+            error = enumerate(store, itemId, null);
+        }
+        if (error != null) {
+            Log.w(getClass().getSimpleName(), "Unable to sync " + itemId, error);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Enumerates the delta of a folder and waits for it to finish. Even when the job is stopped it waits
+     * for a page being applied, so the claim on the folder is only released once nothing writes to it.
+     * @param store The checkpoint store each page is committed to
+     * @param itemId The folder id
+     * @param resumeLink The link to continue from, or null for a full enumeration
+     * @return The failure, or null if every page was committed
+     * @throws InterruptedException If the job was stopped while waiting
+     */
+    private ClientException enumerate(final DeltaCheckpointStore store,
+                                      final String itemId,
+                                      final String resumeLink) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final AtomicReference<ClientException> failure = new AtomicReference<>();
+        final BaseApplication application = (BaseApplication) getApplication();
+        final DeltaEnumerator enumerator = new DeltaEnumerator(
+            new StreamingPageFetcher(application.getGraphServiceClient(), application.getHttpClient(), false),
+            DeltaEnumerator.buildFirstRequest(application.getGraphServiceClient(), itemId, resumeLink),
+            new DeltaEnumerator.Listener() {
+                @Override
+                public void onPage(final DriveItemPage page) {
+                    store.applyPage(itemId, page);
+                    application.getItemChangeBus().publish(page);
+                }
+
+                @Override
+                public void onProgress(final int pageCount, final long itemCount, final double itemsPerSecond) {
+                }
+
+                @Override
+                public void onStopped() {
+                    stopped.countDown();
+                }
+            },
+            new ICallback<String>() {
+                @Override
+                public void success(final String syncState) {
+                    done.countDown();
+                }
+
+                @Override
+                public void failure(final ClientException ex) {
+                    failure.set(ex);
+                    done.countDown();
+                }
+            });
+        mEnumerator = enumerator;
+        try {
+            enumerator.start();
+            done.await();
+        } catch (final InterruptedException e) {
+            enumerator.cancel();
+            throw e;
+        } finally {
+            awaitUninterruptibly(stopped);
+            mEnumerator = null;
+        }
+        return failure.get();
+    }
+
+    /**
+     * Waits for a latch, keeping the interrupt for whoever comes next
+     * @param latch The latch
+     */
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
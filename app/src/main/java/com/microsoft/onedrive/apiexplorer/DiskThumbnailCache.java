@@ -0,0 +1,460 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, least recently used cache of compressed thumbnail bytes on disk.
+ *
+ * Entries are keyed by the item id and its cTag so that a changed file never
+ * serves a stale thumbnail. Access order survives restarts through an append
+ * only journal that is compacted once it grows well past the number of entries.
+ * Entries are written to a temporary file and renamed into place, and files the
+ * journal does not account for are swept when it is loaded, so a write cut short
+ * by the process dying never serves a truncated thumbnail.
+ */
+class DiskThumbnailCache {
+
+    /**
+     * The name of the journal file
+     */
+    private static final String JOURNAL_FILE_NAME = "journal";
+
+    /**
+     * The name of the temporary file used while compacting the journal
+     */
+    private static final String JOURNAL_TEMP_FILE_NAME = "journal.tmp";
+
+    /**
+     * The suffix of the temporary file an entry is written to before it is renamed into place
+     */
+    private static final String ENTRY_TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The journal record for a written entry
+     */
+    private static final String PUT = "PUT";
+
+    /**
+     * The journal record for a read entry
+     */
+    private static final String READ = "READ";
+
+    /**
+     * The journal record for a removed entry
+     */
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * Separates the fields of a journal record
+     */
+    private static final String FIELD_SEPARATOR = " ";
+
+    /**
+     * Separates the item id from the cTag in a cache key
+     */
+    private static final String KEY_SEPARATOR = "|";
+
+    /**
+     * How many journal records per entry are tolerated before compacting
+     */
+    private static final int JOURNAL_RECORDS_PER_ENTRY = 2;
+
+    /**
+     * The minimum number of journal records before compacting is considered
+     */
+    private static final int MIN_JOURNAL_RECORDS_TO_COMPACT = 1000;
+
+    /**
+     * The size of the buffer used to read entries
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The mask to turn a byte into an unsigned value
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * The load factor of the entry map
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The hexadecimal digits
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The number of bits in a hexadecimal digit
+     */
+    private static final int BITS_PER_HEX_DIGIT = 4;
+
+    /**
+     * The mask for the low hexadecimal digit of a byte
+     */
+    private static final int LOW_DIGIT_MASK = 0x0f;
+
+    /**
+     * The directory holding the entries and the journal
+     */
+    private final File mDirectory;
+
+    /**
+     * The maximum number of bytes to keep on disk
+     */
+    private final long mMaxBytes;
+
+    /**
+     * The entries and their sizes, in access order
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, LOAD_FACTOR, true);
+
+    /**
+     * The number of bytes currently stored
+     */
+    private long mSize;
+
+    /**
+     * The number of records in the journal
+     */
+    private int mJournalRecordCount;
+
+    /**
+     * The writer appending to the journal, null until the cache has been opened
+     */
+    private Writer mJournalWriter;
+
+    /**
+     * Default constructor
+     * @param directory The directory to store the entries in
+     * @param maxBytes The maximum number of bytes to keep on disk
+     */
+    DiskThumbnailCache(final File directory, final long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the cached bytes for a thumbnail
+     * @param itemId The id of the item
+     * @param cTag The content tag of the item
+     * @return The compressed thumbnail bytes, or null if they are not cached
+     */
+    synchronized byte[] get(final String itemId, final String cTag) {
+        if (!open()) {
+            return null;
+        }
+
+        final String key = toKey(itemId, cTag);
+        if (!mEntries.containsKey(key)) {
+            return null;
+        }
+
+        final File file = new File(mDirectory, key);
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            appendRecord(READ, key);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to read cached thumbnail, discarding it", e);
+            removeEntry(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores the bytes for a thumbnail
+     * @param itemId The id of the item
+     * @param cTag The content tag of the item
+     * @param bytes The compressed thumbnail bytes
+     */
+    synchronized void put(final String itemId, final String cTag, final byte[] bytes) {
+        if (!open() || bytes.length > mMaxBytes) {
+            return;
+        }
+
+        final String key = toKey(itemId, cTag);
+        final File temp = new File(mDirectory, key + ENTRY_TEMP_SUFFIX);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!temp.renameTo(new File(mDirectory, key))) {
+                throw new IOException("Unable to rename " + temp);
+            }
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to write thumbnail to disk", e);
+            closeQuietly(out);
+            if (temp.exists() && !temp.delete()) {
+                Log.w(getClass().getSimpleName(), "Unable to delete " + temp);
+            }
+            removeEntry(key);
+            return;
+        }
+
+        final Long previous = mEntries.put(key, (long) bytes.length);
+        if (previous != null) {
+            mSize -= previous;
+        }
+        mSize += bytes.length;
+        appendRecord(PUT, key + FIELD_SEPARATOR + bytes.length);
+        trimToSize();
+    }
+
+    /**
+     * Opens the cache by replaying the journal, if it has not already been opened
+     * @return If the cache is usable
+     */
+    private boolean open() {
+        if (mJournalWriter != null) {
+            return true;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(getClass().getSimpleName(), "Unable to create " + mDirectory);
+            return false;
+        }
+
+        final File journal = new File(mDirectory, JOURNAL_FILE_NAME);
+        if (journal.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(journal));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replayRecord(line);
+                    mJournalRecordCount++;
+                }
+            } catch (final IOException e) {
+                Log.w(getClass().getSimpleName(), "Unable to read the thumbnail journal, starting over", e);
+                mEntries.clear();
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+
+        mSize = 0;
+        final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            final File file = new File(mDirectory, entry.getKey());
+            if (file.exists() && file.length() == entry.getValue()) {
+                mSize += entry.getValue();
+            } else {
+                iterator.remove();
+            }
+        }
+        sweepUnjournaledFiles();
+
+        try {
+            compactJournal();
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to write the thumbnail journal", e);
+            return false;
+        }
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * Deletes the files of entries the journal does not hold, such as those of interrupted writes
+     */
+    private void sweepUnjournaledFiles() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            if (JOURNAL_FILE_NAME.equals(name) || mEntries.containsKey(name)) {
+                continue;
+            }
+            if (!file.delete()) {
+                Log.w(getClass().getSimpleName(), "Unable to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Applies a single journal record to the in memory entries
+     * @param line The journal record
+     */
+    private void replayRecord(final String line) {
+        final String[] fields = line.split(FIELD_SEPARATOR);
+        if (fields.length < 2) {
+            return;
+        }
+        final String key = fields[1];
+        if (PUT.equals(fields[0]) && fields.length > 2) {
+            try {
+                mEntries.put(key, Long.parseLong(fields[2]));
+            } catch (final NumberFormatException ignored) {
+                mEntries.remove(key);
+            }
+        } else if (READ.equals(fields[0])) {
+            mEntries.get(key);
+        } else if (REMOVE.equals(fields[0])) {
+            mEntries.remove(key);
+        }
+    }
+
+    /**
+     * Removes least recently used entries until the cache fits in its budget
+     */
+    private void trimToSize() {
+        while (mSize > mMaxBytes && !mEntries.isEmpty()) {
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Removes an entry and its file
+     * @param key The key of the entry
+     */
+    private void removeEntry(final String key) {
+        final Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        final File file = new File(mDirectory, key);
+        if (file.exists() && !file.delete()) {
+            Log.w(getClass().getSimpleName(), "Unable to delete " + file);
+        }
+        appendRecord(REMOVE, key);
+    }
+
+    /**
+     * Appends a record to the journal, compacting it if it has grown too large
+     * @param type The record type
+     * @param arguments The record arguments
+     */
+    private void appendRecord(final String type, final String arguments) {
+        if (mJournalWriter == null) {
+            return;
+        }
+        try {
+            mJournalWriter.write(type + FIELD_SEPARATOR + arguments + "\n");
+            mJournalWriter.flush();
+            mJournalRecordCount++;
+            if (mJournalRecordCount >= MIN_JOURNAL_RECORDS_TO_COMPACT
+                && mJournalRecordCount > mEntries.size() * JOURNAL_RECORDS_PER_ENTRY) {
+                compactJournal();
+            }
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to append to the thumbnail journal", e);
+        }
+    }
+
+    /**
+     * Rewrites the journal so that it only holds the live entries in access order
+     * @throws IOException If the journal could not be written
+     */
+    private void compactJournal() throws IOException {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+
+        final File temp = new File(mDirectory, JOURNAL_TEMP_FILE_NAME);
+        final Writer writer = new BufferedWriter(new FileWriter(temp));
+        try {
+            for (final Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(PUT + FIELD_SEPARATOR + entry.getKey() + FIELD_SEPARATOR + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        final File journal = new File(mDirectory, JOURNAL_FILE_NAME);
+        if (!temp.renameTo(journal)) {
+            throw new IOException("Unable to replace " + journal);
+        }
+        mJournalRecordCount = mEntries.size();
+        mJournalWriter = new BufferedWriter(new FileWriter(journal, true));
+    }
+
+    /**
+     * Creates the file safe key for a thumbnail
+     * @param itemId The id of the item
+     * @param cTag The content tag of the item
+     * @return The key
+     */
+    private static String toKey(final String itemId, final String cTag) {
+        final String source = itemId + KEY_SEPARATOR + cTag;
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes("UTF-8"));
+            final char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                final int value = digest[i] & BYTE_MASK;
+                hex[i * 2] = HEX_DIGITS[value >>> BITS_PER_HEX_DIGIT];
+                hex[i * 2 + 1] = HEX_DIGITS[value & LOW_DIGIT_MASK];
+            }
+            return new String(hex);
+        } catch (final NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Unable to create a thumbnail cache key", e);
+        }
+    }
+
+    /**
+     * Closes a stream, ignoring any failures
+     * @param closeable The stream to close
+     */
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException ignored) {
+                // Nothing more can be done
+            }
+        }
+    }
+}
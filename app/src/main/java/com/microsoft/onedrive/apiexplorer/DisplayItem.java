@@ -23,16 +23,10 @@
 package com.microsoft.onedrive.apiexplorer;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
-import android.util.Log;
 import android.util.LruCache;
 
 import com.microsoft.graph.extensions.DriveItem;
-import com.microsoft.graph.extensions.IGraphServiceClient;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -41,6 +35,11 @@ import java.util.List;
  */
 class DisplayItem {
 
+    /**
+     * Separates the item id from the cTag in a thumbnail key
+     */
+    private static final String THUMBNAIL_KEY_SEPARATOR = "|";
+
     /**
      * The item factory that created this item
      */
@@ -57,77 +56,30 @@ class DisplayItem {
     private final String mId;
 
     /**
-     * The task to retrieve the thumbnail for this item
+     * The name shown for this item
      */
-    private final AsyncTask<Void, Void, Bitmap> mGetThumbnailTask;
+    private final String mName;
+
+    /**
+     * The facets shown for this item, computed once up front
+     */
+    private final String mTypeFacets;
 
     /**
      * Default Constructor
      *
-     * @param adapter The adapter for this item
      * @param item The Item
      * @param id   The internal id for the item
      * @param imageCache The thumbnail image cache
      */
-    public DisplayItem(final DisplayItemAdapter adapter,
-                       final DriveItem item,
+    public DisplayItem(final DriveItem item,
                        final String id,
                        final LruCache<String, Bitmap> imageCache) {
         mImageCache = imageCache;
         mItem = item;
         mId = id;
-
-        if (hasThumbnail()) {
-            final BaseApplication base = (BaseApplication)adapter.getContext().getApplicationContext();
-            mGetThumbnailTask = new AsyncTask<Void, Void, Bitmap>() {
-
-                @Override
-                protected Bitmap doInBackground(final Void... params) {
-                    final Bitmap foundImage = imageCache.get(mId);
-                    if (foundImage != null) {
-                        return foundImage;
-                    }
-                    Log.i("DisplayItem", "Getting thumbnail for " + mId);
-
-                    InputStream in = null;
-                    try {
-                        final IGraphServiceClient graphServiceClient = base.getGraphServiceClient();
-                        in = graphServiceClient
-                                .getDrive()
-                                .getItems(mId)
-                                .getThumbnails("0")
-                                .getThumbnailSize("small")
-                                .getContent()
-                                .buildRequest()
-                                .get();
-                        final Bitmap bitmap = BitmapFactory.decodeStream(in);
-                        imageCache.put(mId, bitmap);
-                        return bitmap;
-                    } catch (final Throwable e) {
-                        Log.e(getClass().getSimpleName(), "Thumbnail download failure", e);
-                        return null;
-                    } finally {
-                        if (in != null) {
-                            try {
-                                in.close();
-                            } catch (final IOException e) {
-                                Log.d(getClass().getSimpleName(), "Problem closing thumbnail stream", e);
-                            }
-                        }
-                    }
-                }
-
-                @Override
-                protected void onPostExecute(final Bitmap image) {
-                    if (image != null) {
-                        adapter.notifyDataSetChanged();
-                    }
-                }
-            };
-            mGetThumbnailTask.execute();
-        } else {
-            mGetThumbnailTask = null;
-        }
+        mName = item.name;
+        mTypeFacets = computeTypeFacets();
     }
 
     /**
@@ -138,6 +90,14 @@ class DisplayItem {
         return mId;
     }
 
+    /**
+     * The name shown for this item
+     * @return The item name
+     */
+    public String getName() {
+        return mName;
+    }
+
     /**
      * The backing item instance
      * @return The item instance
@@ -147,28 +107,37 @@ class DisplayItem {
     }
 
     /**
-     * Stops attempting to download this thumbnail
+     * The content tag of the item, which changes whenever the content of the item does
+     * @return The content tag, or null if the item has none
      */
-    public void cancelThumbnailDownload() {
-        if (mGetThumbnailTask != null && mGetThumbnailTask.getStatus() != AsyncTask.Status.FINISHED) {
-            mGetThumbnailTask.cancel(false);
-        }
+    String getCTag() {
+        return mItem.cTag;
+    }
+
+    /**
+     * The key identifying the current thumbnail of this item
+     * @return The thumbnail key
+     */
+    String getThumbnailKey() {
+        return mId + THUMBNAIL_KEY_SEPARATOR + mItem.cTag;
     }
 
     /**
-     * Resume downloading this thumbnail if it hasn't been retrieved already
+     * The pre-signed url of the small thumbnail returned with the item
+     * @return The thumbnail url, or null if the item has no thumbnail
      */
-    public void resumeThumbnailDownload() {
-        if (mGetThumbnailTask != null && mGetThumbnailTask.getStatus() == AsyncTask.Status.PENDING) {
-            mGetThumbnailTask.execute((Void)null);
+    String getThumbnailUrl() {
+        if (hasThumbnail()) {
+            return mItem.thumbnails.getCurrentPage().get(0).small.url;
         }
+        return null;
     }
 
     /**
      * Determine if an item has a thumbnail used for visualization
      * @return If the item has a thumbnail
      */
-    private boolean hasThumbnail() {
+    boolean hasThumbnail() {
         return mItem.thumbnails != null
                && mItem.thumbnails.getCurrentPage() != null
                && !mItem.thumbnails.getCurrentPage().isEmpty()
@@ -180,7 +149,42 @@ class DisplayItem {
      * Gets a list of the facets on this item
      * @return The list of facets
      */
-    public String  getTypeFacets() {
+    public String getTypeFacets() {
+        return mTypeFacets;
+    }
+
+    /**
+     * If this item would be displayed exactly like another one
+     * @param other The other item
+     * @return If the displayed content is the same
+     */
+    boolean hasSameContent(final DisplayItem other) {
+        if (mItem.eTag != null && other.mItem.eTag != null) {
+            return mItem.eTag.equals(other.mItem.eTag);
+        }
+        return equalOrBothNull(mName, other.mName)
+               && equalOrBothNull(mTypeFacets, other.mTypeFacets)
+               && equalOrBothNull(mItem.cTag, other.mItem.cTag);
+    }
+
+    /**
+     * Compares two possibly null strings
+     * @param first The first string
+     * @param second The second string
+     * @return If the strings are equal
+     */
+    private static boolean equalOrBothNull(final String first, final String second) {
+        if (first == null) {
+            return second == null;
+        }
+        return first.equals(second);
+    }
+
+    /**
+     * Builds the list of the facets on this item
+     * @return The list of facets
+     */
+    private String computeTypeFacets() {
         final List<String> typeFacets = new LinkedList<>();
         if (mItem.folder != null) {
             typeFacets.add(mItem.folder.getClass().getSimpleName());
@@ -225,7 +229,7 @@ class DisplayItem {
      */
     @Override
     public String toString() {
-        return mItem.name;
+        return mName;
     }
 
     /**
@@ -234,7 +238,7 @@ class DisplayItem {
      */
     public Bitmap getImage() {
         if (hasThumbnail()) {
-            return mImageCache.get(mId);
+            return mImageCache.get(getThumbnailKey());
         }
         return null;
     }
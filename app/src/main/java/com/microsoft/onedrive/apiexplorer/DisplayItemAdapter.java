@@ -25,64 +25,550 @@ package com.microsoft.onedrive.apiexplorer;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.microsoft.graph.extensions.DriveItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 /**
- * Array adapter for display items
+ * Recycler view adapter for display items.
+ *
+ * Thumbnails are only requested for the rows on screen plus a small prefetch window around them.
+ * Nothing is requested while the list is flinging, and requests for rows that leave the window are cancelled.
+ * Loaded thumbnails are set directly on the view bound to their item, batched into one pass per frame.
+ * New listings are diffed against the current one on a background thread so only changed rows are touched,
+ * which is also how single item changes are applied in place.
  */
-public class DisplayItemAdapter extends ArrayAdapter<DisplayItem> {
+public class DisplayItemAdapter extends RecyclerView.Adapter<DisplayItemAdapter.ViewHolder>
+        implements ThumbnailLoader.Listener {
+
+    /**
+     * The number of rows on either side of the screen whose thumbnails are prefetched
+     */
+    private static final int PREFETCH_ROW_COUNT = 6;
+
+    /**
+     * Builds display items and diffs listings off the main thread
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives clicks on items
+     */
+    interface OnItemClickListener {
+        /**
+         * Called when an item is clicked
+         * @param item The item that was clicked
+         */
+        void onItemClick(final DisplayItem item);
+    }
+
+    /**
+     * The context of this adapter
+     */
+    private final Activity mContext;
 
     /**
      * The layout inflater
      */
     private final LayoutInflater mInflater;
 
+    /**
+     * The loader used to retrieve thumbnails
+     */
+    private final ThumbnailLoader mThumbnailLoader;
+
+    /**
+     * The thumbnail cache, told which bitmaps are on screen
+     */
+    private final ThumbnailCache mImageCache;
+
+    /**
+     * Used to hand diff results back to the main thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The items shown by this adapter
+     */
+    private List<DisplayItem> mItems = Collections.emptyList();
+
+    /**
+     * The items of the most recently submitted listing, which later changes are applied to
+     */
+    private List<DriveItem> mDriveItems = Collections.emptyList();
+
+    /**
+     * Stable ids handed out for each item id, only ever grows for the life of the adapter
+     */
+    private final Map<String, Long> mStableIds = new HashMap<>();
+
+    /**
+     * The number of listings submitted, used to drop diffs that have been superseded
+     */
+    private int mGeneration;
+
+    /**
+     * The ids of the items whose thumbnails have been requested by this adapter
+     */
+    private final Set<String> mRequestedThumbnails = new HashSet<>();
+
+    /**
+     * Every view holder created for the recycler view showing this adapter
+     */
+    private final Set<ViewHolder> mHolders = new HashSet<>();
+
+    /**
+     * The view holders currently bound to each item id
+     */
+    private final Map<String, ViewHolder> mBoundHolders = new HashMap<>();
+
+    /**
+     * The ids of the items whose thumbnails have loaded since the last frame
+     */
+    private final Set<String> mPendingThumbnails = new HashSet<>();
+
+    /**
+     * Applies the pending thumbnails on the next frame.
+     *
+     * Each thumbnail is looked up in the cache again, as it may have been evicted and handed out for reuse
+     * since it was decoded.
+     */
+    private final Choreographer.FrameCallback mApplyPendingThumbnails = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            for (final String itemId : mPendingThumbnails) {
+                final ViewHolder holder = mBoundHolders.get(itemId);
+                if (holder == null) {
+                    continue;
+                }
+                final Bitmap image = mImageCache.retainIfCached(holder.mThumbnailKey);
+                if (image != null) {
+                    bindImage(holder.mIcon, image);
+                    mImageCache.release(image);
+                }
+            }
+            mPendingThumbnails.clear();
+        }
+    };
+
+    /**
+     * Tracks the scroll state and visible range of the recycler view showing this adapter
+     */
+    private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(final RecyclerView recyclerView, final int newState) {
+            mScrollState = newState;
+            if (newState != RecyclerView.SCROLL_STATE_SETTLING) {
+                updateVisibleRange(recyclerView);
+                scheduleThumbnails();
+            }
+        }
+
+        @Override
+        public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+            if (updateVisibleRange(recyclerView) && mScrollState != RecyclerView.SCROLL_STATE_SETTLING) {
+                scheduleThumbnails();
+            }
+        }
+    };
+
+    /**
+     * The listener for item clicks
+     */
+    private OnItemClickListener mOnItemClickListener;
+
+    /**
+     * The current scroll state of the recycler view showing this adapter
+     */
+    private int mScrollState = RecyclerView.SCROLL_STATE_IDLE;
+
+    /**
+     * The position of the first row on screen
+     */
+    private int mFirstVisiblePosition;
+
+    /**
+     * The number of rows on screen
+     */
+    private int mVisibleCount;
+
     /**
      * Default constructor
      * @param context The context of this adapter
      */
     public DisplayItemAdapter(final Activity context) {
-        super(context, R.layout.display_item_resource);
+        mContext = context;
         mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        final BaseApplication application = (BaseApplication)context.getApplication();
+        mThumbnailLoader = application.getThumbnailLoader();
+        mImageCache = application.getImageCache();
+        setHasStableIds(true);
+    }
+
+    /**
+     * Sets the listener for item clicks
+     * @param listener The listener
+     */
+    void setOnItemClickListener(final OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
+
+    /**
+     * Replaces the items of this adapter, animating only the rows that changed
+     * @param driveItems The new items
+     */
+    void setItems(final List<DriveItem> driveItems) {
+        mDriveItems = driveItems;
+        final int generation = ++mGeneration;
+        final List<DisplayItem> oldItems = mItems;
+        final ThumbnailCache imageCache = mImageCache;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<DisplayItem> newItems = new ArrayList<>(driveItems.size());
+                for (final DriveItem driveItem : driveItems) {
+                    newItems.add(new DisplayItem(driveItem, driveItem.id, imageCache));
+                }
+                final ListDiff diff = ListDiff.compute(oldItems, newItems);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mItems = newItems;
+                        diff.dispatchTo(DisplayItemAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Inserts or replaces some items and removes others in one pass, only their rows are touched
+     * @param changed The items as they are now
+     * @param removedIds The ids of the items to remove, ignored if they are not shown
+     */
+    void updateItems(final List<DriveItem> changed, final List<String> removedIds) {
+        final Map<String, DriveItem> driveItems = new LinkedHashMap<>();
+        for (final DriveItem driveItem : mDriveItems) {
+            driveItems.put(driveItem.id, driveItem);
+        }
+        boolean modified = false;
+        for (final DriveItem driveItem : changed) {
+            final DriveItem previous = driveItems.put(driveItem.id, driveItem);
+            if (previous != null && driveItem.thumbnails == null && equalOrBothNull(driveItem.cTag, previous.cTag)) {
+                driveItem.thumbnails = previous.thumbnails;
+            }
+            modified = true;
+        }
+        for (final String itemId : removedIds) {
+            if (driveItems.remove(itemId) != null) {
+                modified = true;
+            }
+        }
+        if (modified) {
+            setItems(new ArrayList<>(driveItems.values()));
+        }
+    }
+
+    /**
+     * Checks if an item is shown
+     * @param itemId The id of the item
+     * @return If the item is part of the most recently submitted listing
+     */
+    boolean contains(final String itemId) {
+        return indexOf(mDriveItems, itemId) != -1;
+    }
+
+    /**
+     * Finds an item in a listing
+     * @param driveItems The listing
+     * @param itemId The id of the item
+     * @return The index of the item, or -1 if it is not in the listing
+     */
+    private static int indexOf(final List<DriveItem> driveItems, final String itemId) {
+        for (int i = 0; i < driveItems.size(); i++) {
+            if (driveItems.get(i).id.equals(itemId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares two possibly null strings
+     * @param first The first string
+     * @param second The second string
+     * @return If the strings are equal
+     */
+    private static boolean equalOrBothNull(final String first, final String second) {
+        if (first == null) {
+            return second == null;
+        }
+        return first.equals(second);
+    }
+
+    /**
+     * Gets the item at a position
+     * @param position The position
+     * @return The item
+     */
+    DisplayItem getItem(final int position) {
+        return mItems.get(position);
     }
 
     @Override
-    public View getView(final int position, final View convertView, final ViewGroup parent) {
-        final View view;
-        if (convertView == null) {
-            view = mInflater.inflate(R.layout.display_item_resource, parent, false);
-        } else {
-            view = convertView;
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(final int position) {
+        final String id = mItems.get(position).getId();
+        Long stableId = mStableIds.get(id);
+        if (stableId == null) {
+            stableId = (long) mStableIds.size();
+            mStableIds.put(id, stableId);
         }
+        return stableId;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(final ViewGroup parent, final int viewType) {
+        final ViewHolder holder = new ViewHolder(mInflater.inflate(R.layout.display_item_resource, parent, false));
+        mHolders.add(holder);
+        return holder;
+    }
 
-        final DisplayItem item = getItem(position);
-        item.resumeThumbnailDownload();
+    @Override
+    public void onBindViewHolder(final ViewHolder holder, final int position) {
+        final DisplayItem item = mItems.get(position);
+        if (holder.mItemId != null && mBoundHolders.get(holder.mItemId) == holder) {
+            mBoundHolders.remove(holder.mItemId);
+        }
+        holder.mItemId = item.getId();
+        holder.mThumbnailKey = item.getThumbnailKey();
+        mBoundHolders.put(item.getId(), holder);
 
-        ((TextView)view.findViewById(android.R.id.text1)).setText(item.getItem().name);
-        ((TextView)view.findViewById(android.R.id.text2)).setText(item.getTypeFacets());
-        final ImageView imageView = (ImageView) view.findViewById(android.R.id.icon);
-        final Bitmap image = item.getImage();
+        holder.mName.setText(item.getName());
+        holder.mTypeFacets.setText(item.getTypeFacets());
+        holder.mIcon.setContentDescription(mContext.getString(R.string.thumbnail_description, item.getName()));
+
+        // Looked up and retained in one step, a thumbnail evicted in between could be decoded over
+        Bitmap image = null;
+        if (item.hasThumbnail()) {
+            image = mImageCache.retainIfCached(holder.mThumbnailKey);
+        }
+        bindImage(holder.mIcon, image);
+        if (image != null) {
+            mImageCache.release(image);
+        }
+        if (image == null && mScrollState != RecyclerView.SCROLL_STATE_SETTLING) {
+            requestThumbnail(item, ThumbnailLoader.PRIORITY_VISIBLE);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(final ViewHolder holder) {
+        if (holder.mItemId != null && mBoundHolders.get(holder.mItemId) == holder) {
+            mBoundHolders.remove(holder.mItemId);
+        }
+        holder.mItemId = null;
+        holder.mThumbnailKey = null;
+        bindImage(holder.mIcon, null);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(final RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(final RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(mScrollListener);
+        // The rows go away with the recycler view, so release the thumbnails they hold in the cache
+        for (final ViewHolder holder : mHolders) {
+            onViewRecycled(holder);
+        }
+        mHolders.clear();
+        mBoundHolders.clear();
+        mPendingThumbnails.clear();
+    }
+
+    /**
+     * Shows a thumbnail in a view, keeping the cache informed of which bitmaps are on screen
+     * @param imageView The view
+     * @param image The thumbnail, or null to show the placeholder
+     */
+    private void bindImage(final ImageView imageView, final Bitmap image) {
+        final Bitmap previousImage = (Bitmap) imageView.getTag(R.id.bound_thumbnail);
+        if (previousImage != image) {
+            if (previousImage != null) {
+                mImageCache.release(previousImage);
+            }
+            if (image != null) {
+                mImageCache.retain(image);
+            }
+            imageView.setTag(R.id.bound_thumbnail, image);
+        }
         if (image != null) {
             imageView.setImageBitmap(image);
         } else {
             imageView.setImageResource(android.R.drawable.ic_menu_report_image);
         }
-        imageView.setContentDescription(getContext().getString(R.string.thumbnail_description, item.getItem().name));
+    }
+
+    /**
+     * Reads the visible range from the layout manager
+     * @param recyclerView The recycler view showing this adapter
+     * @return If the visible range changed
+     */
+    private boolean updateVisibleRange(final RecyclerView recyclerView) {
+        final LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        final int first = Math.max(0, layoutManager.findFirstVisibleItemPosition());
+        final int count = Math.max(0, layoutManager.findLastVisibleItemPosition() - first + 1);
+        if (first == mFirstVisiblePosition && count == mVisibleCount) {
+            return false;
+        }
+        mFirstVisiblePosition = first;
+        mVisibleCount = count;
+        return true;
+    }
+
+    /**
+     * Cancels thumbnails for rows that left the prefetch window and requests the ones inside it
+     */
+    private void scheduleThumbnails() {
+        final int windowStart = Math.max(0, mFirstVisiblePosition - PREFETCH_ROW_COUNT);
+        final int windowEnd = Math.min(getItemCount(), mFirstVisiblePosition + mVisibleCount + PREFETCH_ROW_COUNT);
+
+        final Set<String> windowIds = new HashSet<>();
+        for (int i = windowStart; i < windowEnd; i++) {
+            windowIds.add(getItem(i).getId());
+        }
+        final Iterator<String> requested = mRequestedThumbnails.iterator();
+        while (requested.hasNext()) {
+            final String itemId = requested.next();
+            if (!windowIds.contains(itemId)) {
+                mThumbnailLoader.cancel(itemId, this);
+                requested.remove();
+            }
+        }
+
+        for (int i = windowStart; i < windowEnd; i++) {
+            final boolean visible = i >= mFirstVisiblePosition && i < mFirstVisiblePosition + mVisibleCount;
+            if (visible) {
+                requestThumbnail(getItem(i), ThumbnailLoader.PRIORITY_VISIBLE);
+            } else {
+                requestThumbnail(getItem(i), ThumbnailLoader.PRIORITY_PREFETCH);
+            }
+        }
+    }
 
-        return view;
+    /**
+     * Requests the thumbnail of an item if it has one
+     * @param item The item
+     * @param priority The priority of the request
+     */
+    private void requestThumbnail(final DisplayItem item, final int priority) {
+        if (item.hasThumbnail()) {
+            mRequestedThumbnails.add(item.getId());
+            mThumbnailLoader.load(item, priority, this);
+        }
     }
 
     /**
      * Stop issuing requests for thumbnails contained within this Adapter
      */
     public void stopDownloadingThumbnails() {
-        for (int i = 0; i < getCount(); i++) {
-            getItem(i).cancelThumbnailDownload();
+        for (final String itemId : mRequestedThumbnails) {
+            mThumbnailLoader.cancel(itemId, this);
+        }
+        mRequestedThumbnails.clear();
+    }
+
+    @Override
+    public void onThumbnailLoaded(final String itemId, final Bitmap bitmap) {
+        mRequestedThumbnails.remove(itemId);
+        if (!mBoundHolders.containsKey(itemId)) {
+            return;
+        }
+        if (mPendingThumbnails.isEmpty()) {
+            Choreographer.getInstance().postFrameCallback(mApplyPendingThumbnails);
+        }
+        mPendingThumbnails.add(itemId);
+    }
+
+    /**
+     * Holds the views of a single row
+     */
+    final class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        /**
+         * The name of the item
+         */
+        private final TextView mName;
+
+        /**
+         * The facets of the item
+         */
+        private final TextView mTypeFacets;
+
+        /**
+         * The thumbnail of the item
+         */
+        private final ImageView mIcon;
+
+        /**
+         * The id of the item currently bound to this holder
+         */
+        private String mItemId;
+
+        /**
+         * The key of the thumbnail of the item currently bound to this holder
+         */
+        private String mThumbnailKey;
+
+        /**
+         * Default constructor
+         * @param view The row view
+         */
+        ViewHolder(final View view) {
+            super(view);
+            mName = (TextView) view.findViewById(android.R.id.text1);
+            mTypeFacets = (TextView) view.findViewById(android.R.id.text2);
+            mIcon = (ImageView) view.findViewById(android.R.id.icon);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(final View view) {
+            final int position = getAdapterPosition();
+            if (mOnItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                mOnItemClickListener.onItemClick(mItems.get(position));
+            }
         }
     }
 }
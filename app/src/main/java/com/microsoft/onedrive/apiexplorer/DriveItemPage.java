@@ -0,0 +1,121 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+import com.microsoft.graph.extensions.DriveItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of items read from a collection response, together with the links that follow it
+ */
+class DriveItemPage implements CollectionPageReader.Sink {
+
+    /**
+     * The items, in response order
+     */
+    private final List<DriveItem> mItems = new ArrayList<>();
+
+    /**
+     * The json of each item, or null when it was not kept
+     */
+    private final List<JsonObject> mRawItems;
+
+    /**
+     * The link to the next page, or null on the last page
+     */
+    private String mNextLink;
+
+    /**
+     * The delta link or token, only on the last page of a delta
+     */
+    private String mDeltaLink;
+
+    /**
+     * Default constructor
+     * @param keepRaw If the json of each item is kept
+     */
+    DriveItemPage(final boolean keepRaw) {
+        if (keepRaw) {
+            mRawItems = new ArrayList<>();
+        } else {
+            mRawItems = null;
+        }
+    }
+
+    @Override
+    public void onItem(final DriveItem item, final JsonObject raw) {
+        mItems.add(item);
+        if (mRawItems != null) {
+            mRawItems.add(raw);
+        }
+    }
+
+    @Override
+    public void onNextLink(final String nextLink) {
+        mNextLink = nextLink;
+    }
+
+    @Override
+    public void onDeltaLink(final String deltaLink) {
+        mDeltaLink = deltaLink;
+    }
+
+    /**
+     * Gets the items
+     * @return The items, in response order
+     */
+    List<DriveItem> getItems() {
+        return Collections.unmodifiableList(mItems);
+    }
+
+    /**
+     * Gets the json of the items
+     * @return The json of each item in response order, or null when it was not kept
+     */
+    List<JsonObject> getRawItems() {
+        if (mRawItems == null) {
+            return null;
+        }
+        return Collections.unmodifiableList(mRawItems);
+    }
+
+    /**
+     * Gets the link to the next page
+     * @return The link, or null on the last page
+     */
+    String getNextLink() {
+        return mNextLink;
+    }
+
+    /**
+     * Gets the delta link or token
+     * @return The link or token, only set on the last page of a delta
+     */
+    String getDeltaLink() {
+        return mDeltaLink;
+    }
+}
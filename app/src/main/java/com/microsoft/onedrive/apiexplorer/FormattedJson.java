@@ -0,0 +1,144 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/**
+ * Pretty printed json text together with an index of where each line starts
+ */
+final class FormattedJson {
+
+    /**
+     * The indentation used for each level of nesting
+     */
+    private static final String INDENT = "   ";
+
+    /**
+     * The initial capacity of the line index
+     */
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
+    /**
+     * Writes json trees without escaping or dropping anything
+     */
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+
+    /**
+     * Formatted json with no lines
+     */
+    static final FormattedJson EMPTY = new FormattedJson("", new int[0], 0);
+
+    /**
+     * The formatted text
+     */
+    private final String mText;
+
+    /**
+     * The offset of the start of each line in the text
+     */
+    private final int[] mLineStarts;
+
+    /**
+     * The number of lines
+     */
+    private final int mLineCount;
+
+    /**
+     * Default constructor
+     * @param text The formatted text
+     * @param lineStarts The offset of the start of each line in the text
+     * @param lineCount The number of lines
+     */
+    private FormattedJson(final String text, final int[] lineStarts, final int lineCount) {
+        mText = text;
+        mLineStarts = lineStarts;
+        mLineCount = lineCount;
+    }
+
+    /**
+     * Formats a json tree, this should be done off the main thread for large trees
+     * @param element The json tree
+     * @return The formatted json
+     */
+    static FormattedJson format(final JsonElement element) {
+        final StringWriter stringWriter = new StringWriter();
+        final JsonWriter jsonWriter = new JsonWriter(stringWriter);
+        jsonWriter.setIndent(INDENT);
+        GSON.toJson(element, jsonWriter);
+        final String text = stringWriter.toString();
+
+        int[] lineStarts = new int[INITIAL_LINE_CAPACITY];
+        int lineCount = 0;
+        int start = 0;
+        while (start <= text.length()) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+            }
+            lineStarts[lineCount++] = start;
+            final int newline = text.indexOf('\n', start);
+            if (newline == -1) {
+                break;
+            }
+            start = newline + 1;
+        }
+        return new FormattedJson(text, lineStarts, lineCount);
+    }
+
+    /**
+     * The number of lines
+     * @return The number of lines
+     */
+    int getLineCount() {
+        return mLineCount;
+    }
+
+    /**
+     * Gets a single line, without its line break
+     * @param index The line number
+     * @return The line
+     */
+    String getLine(final int index) {
+        final int start = mLineStarts[index];
+        int end = mText.length();
+        if (index + 1 < mLineCount) {
+            end = mLineStarts[index + 1] - 1;
+        }
+        return mText.substring(start, end);
+    }
+
+    /**
+     * The whole formatted text
+     * @return The formatted text
+     */
+    @Override
+    public String toString() {
+        return mText;
+    }
+}
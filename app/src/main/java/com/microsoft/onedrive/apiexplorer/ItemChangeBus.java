@@ -0,0 +1,131 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.microsoft.graph.extensions.DriveItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers changes to items, from delta results and from our own mutations, to the views showing them.
+ *
+ * A page of delta is delivered as one batch, so a view applies all of its changes in a single pass.
+ */
+class ItemChangeBus {
+
+    /**
+     * Receives item changes on the main thread
+     */
+    interface Listener {
+
+        /**
+         * Called when items were created, changed or deleted
+         * @param changed The created or changed items as they are now
+         * @param removedIds The ids of the deleted items
+         */
+        void onItemsChanged(List<DriveItem> changed, List<String> removedIds);
+    }
+
+    /**
+     * The registered listeners
+     */
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Delivers changes on the main thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Registers a listener
+     * @param listener The listener
+     */
+    void register(final Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener
+     * @param listener The listener
+     */
+    void unregister(final Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Publishes that an item was created or changed, may be called from any thread
+     * @param item The item as it is now
+     */
+    void publishChanged(final DriveItem item) {
+        deliver(Collections.singletonList(item), Collections.<String>emptyList());
+    }
+
+    /**
+     * Publishes that an item was deleted, may be called from any thread
+     * @param itemId The id of the deleted item
+     */
+    void publishRemoved(final String itemId) {
+        deliver(Collections.<DriveItem>emptyList(), Collections.singletonList(itemId));
+    }
+
+    /**
+     * Publishes every change in a page of delta as one batch, may be called from any thread
+     * @param page The page
+     */
+    void publish(final DriveItemPage page) {
+        final List<DriveItem> changed = new ArrayList<>();
+        final List<String> removedIds = new ArrayList<>();
+        for (final DriveItem item : page.getItems()) {
+            if (item.deleted != null) {
+                removedIds.add(item.id);
+            } else {
+                changed.add(item);
+            }
+        }
+        if (!changed.isEmpty() || !removedIds.isEmpty()) {
+            deliver(changed, removedIds);
+        }
+    }
+
+    /**
+     * Hands a batch of changes to every listener on the main thread
+     * @param changed The created or changed items as they are now
+     * @param removedIds The ids of the deleted items
+     */
+    private void deliver(final List<DriveItem> changed, final List<String> removedIds) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (final Listener listener : mListeners) {
+                    listener.onItemsChanged(changed, removedIds);
+                }
+            }
+        });
+    }
+}
@@ -26,7 +26,6 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.DownloadManager;
 import android.app.Fragment;
-import android.app.ProgressDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.ContentProviderClient;
@@ -38,17 +37,20 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
 import android.text.InputType;
-import android.text.method.ScrollingMovementMethod;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AbsListView;
-import android.widget.AdapterView;
 import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.RadioButton;
@@ -56,19 +58,14 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.microsoft.graph.concurrency.ICallback;
-import com.microsoft.graph.concurrency.IProgressCallback;
 import com.microsoft.graph.core.ClientException;
-import com.microsoft.graph.core.GraphErrorCodes;
 import com.microsoft.graph.extensions.DriveItem;
-import com.microsoft.graph.extensions.Folder;
 import com.microsoft.graph.extensions.IGraphServiceClient;
 import com.microsoft.graph.extensions.Permission;
-import com.microsoft.graph.options.Option;
-import com.microsoft.graph.options.QueryOption;
-
-import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -76,7 +73,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Handles interacting with Items on OneDrive
  */
 @SuppressWarnings("ConstantConditions")
-public class ItemFragment extends Fragment implements AbsListView.OnItemClickListener {
+public class ItemFragment extends Fragment implements DisplayItemAdapter.OnItemClickListener {
 
     /**
      * The item id argument string
@@ -101,7 +98,7 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     /**
      * Expansion options to get all children, thumbnails of children, and thumbnails
      */
-    private static final String EXPAND_OPTIONS_FOR_CHILDREN_AND_THUMBNAILS = "children(expand=thumbnails),thumbnails";
+    static final String EXPAND_OPTIONS_FOR_CHILDREN_AND_THUMBNAILS = "children(expand=thumbnails),thumbnails";
 
     /**
      * Expansion options to get all children, thumbnails of children, and thumbnails when limited
@@ -130,6 +127,11 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
      */
     private static final boolean FUNCTIONS_DISABLED = true;
 
+    /**
+     * The most json tree search matches to collect
+     */
+    private static final int MAX_JSON_TREE_MATCHES = 1000;
+
     /**
      * The item id for this item
      */
@@ -146,16 +148,82 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     private OnFragmentInteractionListener mListener;
 
     /**
-     * The Adapter which will be used to populate the ListView/GridView with
+     * The Adapter which will be used to populate the RecyclerView with
      * Views.
      */
     private DisplayItemAdapter mAdapter;
 
+    /**
+     * The adapter showing the json response one line at a time
+     */
+    private JsonLineAdapter mJsonAdapter;
+
+    /**
+     * The adapter showing the json response as a collapsible tree
+     */
+    private JsonTreeAdapter mJsonTreeAdapter;
+
+    /**
+     * The json tree search currently running, if any
+     */
+    private JsonTreeSearch mJsonTreeSearch;
+
+    /**
+     * The paths of the json tree search matches
+     */
+    private List<int[]> mJsonTreeMatches = Collections.emptyList();
+
+    /**
+     * The index of the json tree search match being shown
+     */
+    private int mJsonTreeMatchIndex = -1;
+
     /**
      * If the current fragment should prioritize the empty view over the visualization
      */
     private final AtomicBoolean mEmpty = new AtomicBoolean(false);
 
+    /**
+     * Applies changes to this item and its children in place
+     */
+    private final ItemChangeBus.Listener mChangeListener = new ItemChangeBus.Listener() {
+        @Override
+        public void onItemsChanged(final List<DriveItem> changed, final List<String> removedIds) {
+            if (mItem == null) {
+                return;
+            }
+
+            final List<DriveItem> updated = new ArrayList<>();
+            final List<String> removed = new ArrayList<>(removedIds);
+            for (final DriveItem item : changed) {
+                if (item.id.equals(mItem.id)) {
+                    if (item.name != null) {
+                        mItem.name = item.name;
+                        showFragmentLabel();
+                    }
+                    continue;
+                }
+
+                final boolean inThisFolder;
+                if (item.parentReference != null) {
+                    inThisFolder = mItem.id.equals(item.parentReference.id);
+                } else {
+                    inThisFolder = mAdapter.contains(item.id);
+                }
+                if (inThisFolder) {
+                    updated.add(item);
+                } else {
+                    removed.add(item.id);
+                }
+            }
+
+            mAdapter.updateItems(updated, removed);
+            if (!updated.isEmpty() && mEmpty.getAndSet(false) && getView() != null) {
+                setFocus(ItemFocus.Visualization, getView());
+            }
+        }
+    };
+
     /**
      * Create a new instance of ItemFragment
      * @param itemId The item id to create it for
@@ -174,11 +242,12 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
         super.onCreate(savedInstanceState);
 
         mAdapter = new DisplayItemAdapter(getActivity());
+        mJsonAdapter = new JsonLineAdapter();
+        mJsonTreeAdapter = new JsonTreeAdapter(getResources().getDimensionPixelSize(R.dimen.json_tree_indent));
 
         final BaseApplication app = (BaseApplication) getActivity().getApplication();
-        if (app.goToWifiSettingsIfDisconnected()) {
-            return;
-        }
+        app.getItemChangeBus().register(mChangeListener);
+        app.getOperationQueue().replay();
 
         if (getArguments() != null) {
             mItemId = getArguments().getString(ARG_ITEM_ID);
@@ -198,9 +267,11 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                              final ViewGroup container,
                              final Bundle savedInstanceState) {
         final View view = inflater.inflate(R.layout.fragment_folder, container, false);
-        final AbsListView mListView = (AbsListView) view.findViewById(android.R.id.list);
-        mListView.setAdapter(mAdapter);
-        mListView.setOnItemClickListener(this);
+        final RecyclerView recyclerView = (RecyclerView) view.findViewById(android.R.id.list);
+        recyclerView.setLayoutManager(
+                new GridLayoutManager(getActivity(), getResources().getInteger(R.integer.folder_column_count)));
+        recyclerView.setAdapter(mAdapter);
+        mAdapter.setOnItemClickListener(this);
 
         ((RadioButton) view.findViewById(android.R.id.button1)).setOnCheckedChangeListener(
                 new CompoundButton.OnCheckedChangeListener() {
@@ -222,7 +293,46 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                     }
                 });
 
-        ((TextView)view.findViewById(R.id.json)).setMovementMethod(new ScrollingMovementMethod());
+        ((RadioButton) view.findViewById(android.R.id.button3)).setOnCheckedChangeListener(
+                new CompoundButton.OnCheckedChangeListener() {
+                    @Override
+                    public void onCheckedChanged(final CompoundButton buttonView, final boolean isChecked) {
+                        if (isChecked) {
+                            setFocus(ItemFocus.JsonTree, getView());
+                        }
+                    }
+                });
+
+        final RecyclerView jsonView = (RecyclerView) view.findViewById(R.id.json);
+        jsonView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        jsonView.setAdapter(mJsonAdapter);
+
+        final RecyclerView jsonTreeView = (RecyclerView) view.findViewById(R.id.json_tree);
+        jsonTreeView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        jsonTreeView.setAdapter(mJsonTreeAdapter);
+
+        final EditText searchText = (EditText) view.findViewById(R.id.json_tree_search);
+        searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(final CharSequence s, final int start, final int count, final int after) {
+            }
+
+            @Override
+            public void onTextChanged(final CharSequence s, final int start, final int before, final int count) {
+            }
+
+            @Override
+            public void afterTextChanged(final Editable s) {
+                searchJsonTree(s.toString());
+            }
+        });
+        searchText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+            @Override
+            public boolean onEditorAction(final TextView v, final int actionId, final KeyEvent event) {
+                showNextJsonTreeMatch();
+                return true;
+            }
+        });
 
         refresh();
 
@@ -336,14 +446,30 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     }
 
     @Override
-    public void onItemClick(final AdapterView<?> parent,
-                            final View view, final int position,
-                            final long id) {
+    public void onItemClick(final DisplayItem item) {
+        if (OperationQueue.isLocalId(item.getId())) {
+            Toast.makeText(getActivity(), getString(R.string.item_not_synced, item.getName()), Toast.LENGTH_LONG)
+                .show();
+            return;
+        }
         if (null != mListener) {
-            mListener.onFragmentInteraction((DisplayItem) mAdapter.getItem(position));
+            mListener.onFragmentInteraction(item);
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        // Detaching the adapter releases the thumbnails its rows hold in the cache
+        ((RecyclerView) getView().findViewById(android.R.id.list)).setAdapter(null);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        ((BaseApplication) getActivity().getApplication()).getItemChangeBus().unregister(mChangeListener);
+    }
+
     @Override
     public void onPause() {
         super.onPause();
@@ -361,33 +487,11 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             public void success(final DriveItem item) {
                 mItem = item;
                 if (getView() != null) {
-                    final AbsListView mListView = (AbsListView) getView().findViewById(android.R.id.list);
-                    final DisplayItemAdapter adapter = (DisplayItemAdapter)mListView.getAdapter();
-                    adapter.clear();
-
-                    String text = null;
-                    try {
-                        String rawString = item.getRawObject().toString();
-                        final JSONObject object = new JSONObject(rawString);
-                        final int intentSize = 3;
-                        text = object.toString(intentSize);
-                    } catch (final Exception e) {
-                        Log.e(getClass().getName(), "Unable to parse the response body to json");
-                    }
+                    formatJson(item);
+                    mJsonTreeAdapter.setRoot(item.getRawObject());
+                    searchJsonTree(((EditText) getView().findViewById(R.id.json_tree_search)).getText().toString());
 
-                    if (text != null) {
-                        ((TextView) getView().findViewById(R.id.json)).setText(text);
-                    }
-
-                    final String fragmentLabel;
-                    if (mItem.parentReference != null) {
-                        fragmentLabel = mItem.parentReference.path
-                                + context.getString(R.string.item_path_separator)
-                                + mItem.name;
-                    } else {
-                        fragmentLabel = DRIVE_PREFIX + mItem.name;
-                    }
-                    ((TextView)getActivity().findViewById(R.id.fragment_label)).setText(fragmentLabel);
+                    showFragmentLabel();
 
                     mEmpty.set(item.children == null || item.children.getCurrentPage().isEmpty());
 
@@ -399,14 +503,9 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                             emptyText.setText(R.string.empty_file);
                         }
                         setFocus(ItemFocus.Empty, getView());
-
+                        mAdapter.setItems(new ArrayList<DriveItem>());
                     } else {
-                        for (final DriveItem childItem : item.children.getCurrentPage()) {
-                            adapter.add(new DisplayItem(adapter,
-                                                        childItem,
-                                                        childItem.id,
-                                                        context.getImageCache()));
-                        }
+                        mAdapter.setItems(item.children.getCurrentPage());
                         setFocus(ItemFocus.Visualization, getView());
                     }
                     getActivity().invalidateOptionsMenu();
@@ -424,6 +523,116 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
         };
     }
 
+    /**
+     * Shows the path of this item as the fragment label
+     */
+    private void showFragmentLabel() {
+        final String fragmentLabel;
+        if (mItem.parentReference != null) {
+            fragmentLabel = mItem.parentReference.path
+                    + getString(R.string.item_path_separator)
+                    + mItem.name;
+        } else {
+            fragmentLabel = DRIVE_PREFIX + mItem.name;
+        }
+        ((TextView)getActivity().findViewById(R.id.fragment_label)).setText(fragmentLabel);
+    }
+
+    /**
+     * Formats the json response for an item in the background and shows it once ready
+     * @param item The item whose response should be shown
+     */
+    private void formatJson(final DriveItem item) {
+        mJsonAdapter.setJson(FormattedJson.EMPTY);
+        new AsyncTask<Void, Void, FormattedJson>() {
+            @Override
+            protected FormattedJson doInBackground(final Void... params) {
+                try {
+                    return FormattedJson.format(item.getRawObject());
+                } catch (final RuntimeException e) {
+                    Log.e(getClass().getName(), "Unable to format the response body as json", e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(final FormattedJson json) {
+                if (json != null && mItem == item) {
+                    mJsonAdapter.setJson(json);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Searches the json tree of the current item in the background, replacing any earlier search
+     * @param query The text to look for
+     */
+    private void searchJsonTree(final String query) {
+        if (mJsonTreeSearch != null) {
+            mJsonTreeSearch.cancel();
+            mJsonTreeSearch = null;
+        }
+        mJsonTreeMatches = Collections.emptyList();
+        mJsonTreeMatchIndex = -1;
+        updateJsonTreeMatchCount();
+
+        final DriveItem item = mItem;
+        if (item == null || query.length() == 0) {
+            return;
+        }
+
+        final JsonTreeSearch search = new JsonTreeSearch(query, MAX_JSON_TREE_MATCHES);
+        mJsonTreeSearch = search;
+        new AsyncTask<Void, Void, List<int[]>>() {
+            @Override
+            protected List<int[]> doInBackground(final Void... params) {
+                return search.find(item.getRawObject());
+            }
+
+            @Override
+            protected void onPostExecute(final List<int[]> matches) {
+                if (matches != null && mJsonTreeSearch == search && mItem == item) {
+                    mJsonTreeSearch = null;
+                    mJsonTreeMatches = matches;
+                    showNextJsonTreeMatch();
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Expands the json tree down to the next search match and scrolls to it
+     */
+    private void showNextJsonTreeMatch() {
+        if (mJsonTreeMatches.isEmpty() || getView() == null) {
+            return;
+        }
+        mJsonTreeMatchIndex = (mJsonTreeMatchIndex + 1) % mJsonTreeMatches.size();
+        final int position = mJsonTreeAdapter.reveal(mJsonTreeMatches.get(mJsonTreeMatchIndex));
+        if (position >= 0) {
+            ((RecyclerView) getView().findViewById(R.id.json_tree)).scrollToPosition(position);
+        }
+        updateJsonTreeMatchCount();
+    }
+
+    /**
+     * Shows which json tree search match is being shown
+     */
+    private void updateJsonTreeMatchCount() {
+        if (getView() == null) {
+            return;
+        }
+        final TextView count = (TextView) getView().findViewById(R.id.json_tree_match_count);
+        if (mJsonTreeMatches.isEmpty()) {
+            count.setText(null);
+        } else {
+            count.setText(getString(R.string.json_tree_match_count,
+                                    mJsonTreeMatchIndex + 1,
+                                    mJsonTreeMatches.size()));
+        }
+    }
+
     /**
      * Refreshes the data for this fragment
      */
@@ -476,21 +685,12 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                 public void onClick(final DialogInterface dialog, final int which) {
                     final BaseApplication application = (BaseApplication) getActivity()
                             .getApplication();
-                    application.getGraphServiceClient()
-                            .getMe()
-                            .getDrive()
-                            .getItems(item.id)
-                            .buildRequest()
-                            .delete(new DefaultCallback<Void>(application) {
-                                @Override
-                                public void success(final Void response) {
-                                    Toast.makeText(getActivity(),
-                                            application.getString(R.string.deleted_this_item,
-                                                    item.name),
-                                            Toast.LENGTH_LONG).show();
-                                    getActivity().onBackPressed();
-                                }
-                            });
+                    application.getOperationQueue().delete(item);
+                    Toast.makeText(getActivity(),
+                            application.getString(R.string.deleted_this_item,
+                                    item.name),
+                            Toast.LENGTH_LONG).show();
+                    getActivity().onBackPressed();
                 }
             })
             .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -578,37 +778,12 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             .setPositiveButton(R.string.rename, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(final DialogInterface dialog, final int which) {
-                    final ICallback<DriveItem> callback = new DefaultCallback<DriveItem>(getActivity()) {
-                        @Override
-                        public void success(final DriveItem item) {
-                            Toast.makeText(activity,
-                                    activity
-                                            .getString(R.string.renamed_item, sourceItem.name,
-                                                    item.name),
-                                    Toast.LENGTH_LONG).show();
-                            refresh();
-                            dialog.dismiss();
-                        }
-
-                        @Override
-                        public void failure(final ClientException error) {
-                            Toast.makeText(activity,
-                                    activity.getString(R.string.rename_error,
-                                            sourceItem.name),
-                                    Toast.LENGTH_LONG).show();
-                            dialog.dismiss();
-                        }
-                    };
-                    DriveItem updatedItem = new DriveItem();
-                    updatedItem.id = sourceItem.id;
-                    updatedItem.name = newName.getText().toString();
-                    ((BaseApplication) activity.getApplication())
-                            .getGraphServiceClient()
-                            .getMe()
-                            .getDrive()
-                            .getItems(updatedItem.id)
-                            .buildRequest()
-                            .patch(updatedItem, callback);
+                    final String name = newName.getText().toString();
+                    ((BaseApplication) activity.getApplication()).getOperationQueue().rename(sourceItem, name);
+                    Toast.makeText(activity,
+                            activity.getString(R.string.renamed_item, sourceItem.name, name),
+                            Toast.LENGTH_LONG).show();
+                    dialog.dismiss();
                 }
             })
             .setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -638,43 +813,13 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                 .setPositiveButton(R.string.create_folder, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(final DialogInterface dialog, final int which) {
-                        final ICallback<DriveItem> callback = new DefaultCallback<DriveItem>(activity) {
-                            @Override
-                            public void success(final DriveItem createdItem) {
-                                Toast.makeText(activity,
-                                                  activity.getString(R.string.created_folder,
-                                                                        createdItem.name,
-                                                                        item.name),
-                                                  Toast.LENGTH_LONG)
-                                    .show();
-                                refresh();
-                                dialog.dismiss();
-                            }
-
-                            @Override
-                            public void failure(final ClientException error) {
-                                super.failure(error);
-                                Toast.makeText(activity,
-                                                  activity.getString(R.string.new_folder_error,
-                                                                        item.name),
-                                                  Toast.LENGTH_LONG)
-                                    .show();
-                                dialog.dismiss();
-                            }
-                        };
-
-                        final DriveItem newItem = new DriveItem();
-                        newItem.name = newName.getText().toString();
-                        newItem.folder = new Folder();
-
-                        ((BaseApplication) activity.getApplication())
-                            .getGraphServiceClient()
-                                .getMe()
-                            .getDrive()
-                            .getItems(mItemId)
-                            .getChildren()
-                            .buildRequest()
-                                .post(newItem, callback);
+                        final String name = newName.getText().toString();
+                        ((BaseApplication) activity.getApplication()).getOperationQueue().createFolder(item.id, name);
+                        Toast.makeText(activity,
+                                          activity.getString(R.string.created_folder, name, item.name),
+                                          Toast.LENGTH_LONG)
+                            .show();
+                        dialog.dismiss();
                     }
                 })
                 .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -701,82 +846,38 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     @Override
     public void onActivityResult(final int requestCode, final int resultCode, final Intent data) {
         final BaseApplication application = (BaseApplication) getActivity().getApplication();
-        final IGraphServiceClient graphServiceClient = application.getGraphServiceClient();
 
         if (requestCode == REQUEST_CODE_SIMPLE_UPLOAD
+                && mItem != null
                 && data != null
                 && data.getData() != null
                 && data.getData().getScheme().equalsIgnoreCase(SCHEME_CONTENT)) {
 
-            final ProgressDialog dialog = new ProgressDialog(getActivity());
-            dialog.setTitle(R.string.upload_in_progress_title);
-            dialog.setMessage(getString(R.string.upload_in_progress_message));
-            dialog.setIndeterminate(false);
-            dialog.setCancelable(false);
-            dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-            dialog.setProgressNumberFormat(getString(R.string.upload_in_progress_number_format));
-            dialog.show();
-            final AsyncTask<Void, Void, Void> uploadFile = new AsyncTask<Void, Void, Void>() {
+            final String parentId = mItem.id;
+            final ContentResolver contentResolver = getActivity().getContentResolver();
+            final AsyncTask<Void, Void, String> uploadFile = new AsyncTask<Void, Void, String>() {
                 @Override
-                protected Void doInBackground(final Void... params) {
+                protected String doInBackground(final Void... params) {
+                    // Fix up the file name (needed for camera roll photos, etc)
+                    final String filename = FileContent.getValidFileName(contentResolver, data.getData());
                     try {
-                        final ContentResolver contentResolver = getActivity().getContentResolver();
                         final ContentProviderClient contentProvider = contentResolver
                                 .acquireContentProviderClient(data.getData());
                         final byte[] fileInMemory = FileContent.getFileBytes(contentProvider, data.getData());
                         contentProvider.release();
 
-                        // Fix up the file name (needed for camera roll photos, etc)
-                        final String filename = FileContent.getValidFileName(contentResolver, data.getData());
-                        final Option option = new QueryOption("@name.conflictBehavior", "fail");
-                        graphServiceClient
-                            .getMe()
-                            .getDrive()
-                            .getItems(mItemId)
-                            .getChildren()
-                            .byId(filename)
-                            .getContent()
-                            .buildRequest(Collections.singletonList(option))
-                            .put(fileInMemory,
-                                new IProgressCallback<DriveItem>() {
-                                    @Override
-                                    public void success(final DriveItem item) {
-                                        dialog.dismiss();
-                                        Toast.makeText(getActivity(),
-                                                          application
-                                                              .getString(R.string.upload_complete,
-                                                                            item.name),
-                                                          Toast.LENGTH_LONG).show();
-                                        refresh();
-                                    }
-
-                                    @Override
-                                    public void failure(final ClientException error) {
-                                        dialog.dismiss();
-                                        if (error.isError(GraphErrorCodes.NameAlreadyExists)) {
-                                            Toast.makeText(getActivity(),
-                                                           R.string.upload_failed_name_conflict,
-                                                           Toast.LENGTH_LONG).show();
-                                        } else {
-                                            Toast.makeText(getActivity(),
-                                                              application
-                                                                  .getString(R.string.upload_failed,
-                                                                                filename),
-                                                              Toast.LENGTH_LONG).show();
-                                        }
-                                    }
-
-                                    @Override
-                                    public void progress(final long current, final long max) {
-                                        dialog.setProgress((int) current);
-                                        dialog.setMax((int) max);
-                                    }
-                                });
+                        application.getOperationQueue().upload(parentId, filename, fileInMemory);
+                        return application.getString(R.string.upload_queued, filename);
                     } catch (final Exception e) {
                         Log.e(getClass().getSimpleName(), e.getMessage());
                         Log.e(getClass().getSimpleName(), e.toString());
+                        return application.getString(R.string.upload_failed, filename);
                     }
-                    return null;
+                }
+
+                @Override
+                protected void onPostExecute(final String message) {
+                    Toast.makeText(application, message, Toast.LENGTH_LONG).show();
                 }
             };
             uploadFile.execute();
@@ -938,6 +1039,11 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
          */
         Json(R.id.json),
 
+        /**
+         * The json tree pane
+         */
+        JsonTree(R.id.json_tree_pane),
+
         /**
          * The 'empty view' pane
          */
@@ -0,0 +1,85 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * Shows formatted json one line per row, so only the lines on screen are laid out
+ */
+class JsonLineAdapter extends RecyclerView.Adapter<JsonLineAdapter.ViewHolder> {
+
+    /**
+     * The json being shown
+     */
+    private FormattedJson mJson = FormattedJson.EMPTY;
+
+    /**
+     * Replaces the json being shown
+     * @param json The formatted json
+     */
+    void setJson(final FormattedJson json) {
+        mJson = json;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mJson.getLineCount();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(final ViewGroup parent, final int viewType) {
+        final View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.json_line_resource, parent, false);
+        return new ViewHolder((TextView) view);
+    }
+
+    @Override
+    public void onBindViewHolder(final ViewHolder holder, final int position) {
+        holder.mLine.setText(mJson.getLine(position));
+    }
+
+    /**
+     * Holds the view of a single line
+     */
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+
+        /**
+         * The line of json
+         */
+        private final TextView mLine;
+
+        /**
+         * Default constructor
+         * @param line The line view
+         */
+        ViewHolder(final TextView line) {
+            super(line);
+            mLine = line;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows a json tree as collapsible rows.
+ *
+ * Child nodes are only created when their parent is first expanded. Every node keeps the number of
+ * rows currently shown beneath it, so the position of a node and the rows to remove on collapse are
+ * found without scanning the visible list.
+ */
+class JsonTreeAdapter extends RecyclerView.Adapter<JsonTreeAdapter.ViewHolder> {
+
+    /**
+     * The longest value shown for a primitive, longer values are cut short
+     */
+    private static final int MAX_VALUE_LENGTH = 200;
+
+    /**
+     * Marks a value that has been cut short
+     */
+    private static final String ELLIPSIS = "\u2026";
+
+    /**
+     * Marks an expanded node
+     */
+    private static final String EXPANDED_MARKER = "\u25BE ";
+
+    /**
+     * Marks a collapsed node
+     */
+    private static final String COLLAPSED_MARKER = "\u25B8 ";
+
+    /**
+     * The indentation for each level of nesting, in pixels
+     */
+    private final int mIndentPixels;
+
+    /**
+     * The top level nodes
+     */
+    private List<Node> mRoots = new ArrayList<>();
+
+    /**
+     * The nodes currently shown, in display order
+     */
+    private final List<Node> mRows = new ArrayList<>();
+
+    /**
+     * The node of the current search match, if any
+     */
+    private Node mHighlighted;
+
+    /**
+     * Default constructor
+     * @param indentPixels The indentation for each level of nesting, in pixels
+     */
+    JsonTreeAdapter(final int indentPixels) {
+        mIndentPixels = indentPixels;
+    }
+
+    /**
+     * Replaces the tree being shown, only the top level members are created
+     * @param root The json tree
+     */
+    void setRoot(final JsonElement root) {
+        mRows.clear();
+        mHighlighted = null;
+        mRoots = createChildren(null, root);
+        mRows.addAll(mRoots);
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(final ViewGroup parent, final int viewType) {
+        final View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.json_tree_node_resource, parent, false);
+        return new ViewHolder((TextView) view);
+    }
+
+    @Override
+    public void onBindViewHolder(final ViewHolder holder, final int position) {
+        final Node node = mRows.get(position);
+        holder.mNode = node;
+        holder.mLabel.setText(node.getLabel());
+        holder.mLabel.setPadding(node.mDepth * mIndentPixels,
+                                 holder.mLabel.getPaddingTop(),
+                                 holder.mLabel.getPaddingRight(),
+                                 holder.mLabel.getPaddingBottom());
+        holder.mLabel.setActivated(node == mHighlighted);
+    }
+
+    /**
+     * Expands or collapses a node
+     * @param node The node
+     */
+    void toggle(final Node node) {
+        if (!node.isContainer()) {
+            return;
+        }
+        if (node.mExpanded) {
+            collapse(node);
+        } else {
+            expand(node);
+        }
+    }
+
+    /**
+     * Expands every node along a path and highlights the last one
+     * @param path The index of the child to follow at each level
+     * @return The position of the highlighted node, or -1 if the path does not exist
+     */
+    int reveal(final int[] path) {
+        List<Node> level = mRoots;
+        Node node = null;
+        for (int i = 0; i < path.length; i++) {
+            if (path[i] >= level.size()) {
+                return -1;
+            }
+            node = level.get(path[i]);
+            if (i < path.length - 1) {
+                if (!node.mExpanded) {
+                    expand(node);
+                }
+                level = node.mChildren;
+            }
+        }
+        if (node == null) {
+            return -1;
+        }
+
+        final Node previous = mHighlighted;
+        mHighlighted = node;
+        if (previous != null && previous.isVisible()) {
+            notifyItemChanged(positionOf(previous));
+        }
+        final int position = positionOf(node);
+        notifyItemChanged(position);
+        return position;
+    }
+
+    /**
+     * Shows the children of a node
+     * @param node The node
+     */
+    private void expand(final Node node) {
+        if (node.mChildren == null) {
+            node.mChildren = createChildren(node, node.mValue);
+        }
+        final List<Node> shown = new ArrayList<>();
+        for (final Node child : node.mChildren) {
+            collectShown(child, shown);
+        }
+        final int position = positionOf(node);
+        node.mExpanded = true;
+        mRows.addAll(position + 1, shown);
+        adjustShownCounts(node, shown.size());
+        notifyItemChanged(position);
+        notifyItemRangeInserted(position + 1, shown.size());
+    }
+
+    /**
+     * Hides the children of a node, remembering which of them were expanded
+     * @param node The node
+     */
+    private void collapse(final Node node) {
+        final int position = positionOf(node);
+        final int count = node.mShownBelow;
+        mRows.subList(position + 1, position + 1 + count).clear();
+        adjustShownCounts(node, -count);
+        node.mExpanded = false;
+        notifyItemChanged(position);
+        notifyItemRangeRemoved(position + 1, count);
+    }
+
+    /**
+     * Adds a node and the rows shown beneath it to a list, in display order
+     * @param node The node
+     * @param shown The list to add to
+     */
+    private static void collectShown(final Node node, final List<Node> shown) {
+        shown.add(node);
+        if (node.mExpanded) {
+            for (final Node child : node.mChildren) {
+                collectShown(child, shown);
+            }
+        }
+    }
+
+    /**
+     * Updates the number of rows shown beneath a node and all of its ancestors
+     * @param node The node
+     * @param delta The change in the number of rows
+     */
+    private static void adjustShownCounts(final Node node, final int delta) {
+        for (Node current = node; current != null; current = current.mParent) {
+            current.mShownBelow += delta;
+            if (current.mParent != null && !current.mParent.mExpanded) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the position of a visible node from the shown counts of the nodes before it
+     * @param node The node
+     * @return The position
+     */
+    private int positionOf(final Node node) {
+        final List<Node> siblings;
+        int position;
+        if (node.mParent == null) {
+            siblings = mRoots;
+            position = 0;
+        } else {
+            siblings = node.mParent.mChildren;
+            position = positionOf(node.mParent) + 1;
+        }
+        for (int i = 0; i < node.mIndex; i++) {
+            position += 1 + siblings.get(i).mShownBelow;
+        }
+        return position;
+    }
+
+    /**
+     * Creates the nodes for the members of a json object or the elements of a json array
+     * @param parent The parent node, or null for the top level
+     * @param value The json value
+     * @return The child nodes
+     */
+    private static List<Node> createChildren(final Node parent, final JsonElement value) {
+        int depth = 0;
+        if (parent != null) {
+            depth = parent.mDepth + 1;
+        }
+        final List<Node> children = new ArrayList<>();
+        if (value.isJsonObject()) {
+            for (final Map.Entry<String, JsonElement> member : value.getAsJsonObject().entrySet()) {
+                children.add(new Node(parent, children.size(), depth, member.getKey(), member.getValue()));
+            }
+        } else if (value.isJsonArray()) {
+            final JsonArray array = value.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                children.add(new Node(parent, i, depth, "[" + i + "]", array.get(i)));
+            }
+        } else {
+            children.add(new Node(parent, 0, depth, "", value));
+        }
+        return children;
+    }
+
+    /**
+     * A single member of the json tree
+     */
+    static final class Node {
+
+        /**
+         * The parent node, or null at the top level
+         */
+        private final Node mParent;
+
+        /**
+         * The index of this node within its parent
+         */
+        private final int mIndex;
+
+        /**
+         * The nesting depth of this node
+         */
+        private final int mDepth;
+
+        /**
+         * The member name or array index of this node
+         */
+        private final String mKey;
+
+        /**
+         * The json value of this node
+         */
+        private final JsonElement mValue;
+
+        /**
+         * The child nodes, null until this node is first expanded
+         */
+        private List<Node> mChildren;
+
+        /**
+         * If the children of this node are shown
+         */
+        private boolean mExpanded;
+
+        /**
+         * The number of rows currently shown beneath this node, kept while an ancestor is collapsed
+         */
+        private int mShownBelow;
+
+        /**
+         * Default constructor
+         * @param parent The parent node, or null at the top level
+         * @param index The index of this node within its parent
+         * @param depth The nesting depth of this node
+         * @param key The member name or array index of this node
+         * @param value The json value of this node
+         */
+        Node(final Node parent, final int index, final int depth, final String key, final JsonElement value) {
+            mParent = parent;
+            mIndex = index;
+            mDepth = depth;
+            mKey = key;
+            mValue = value;
+        }
+
+        /**
+         * If this node has children
+         * @return If this node is an object or an array
+         */
+        boolean isContainer() {
+            return mValue.isJsonObject() || mValue.isJsonArray();
+        }
+
+        /**
+         * If this node is currently shown
+         * @return If every ancestor is expanded
+         */
+        boolean isVisible() {
+            for (Node current = mParent; current != null; current = current.mParent) {
+                if (!current.mExpanded) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Builds the text shown for this node
+         * @return The label
+         */
+        String getLabel() {
+            final StringBuilder sb = new StringBuilder();
+            if (isContainer()) {
+                if (mExpanded) {
+                    sb.append(EXPANDED_MARKER);
+                } else {
+                    sb.append(COLLAPSED_MARKER);
+                }
+            }
+            sb.append(mKey);
+            if (mValue.isJsonObject()) {
+                final JsonObject object = mValue.getAsJsonObject();
+                sb.append(" {").append(object.entrySet().size()).append('}');
+            } else if (mValue.isJsonArray()) {
+                sb.append(" [").append(mValue.getAsJsonArray().size()).append(']');
+            } else {
+                String value = mValue.toString();
+                if (value.length() > MAX_VALUE_LENGTH) {
+                    value = value.substring(0, MAX_VALUE_LENGTH) + ELLIPSIS;
+                }
+                if (mKey.length() > 0) {
+                    sb.append(": ");
+                }
+                sb.append(value);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Holds the view of a single node
+     */
+    final class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        /**
+         * The label of the node
+         */
+        private final TextView mLabel;
+
+        /**
+         * The node currently bound to this holder
+         */
+        private Node mNode;
+
+        /**
+         * Default constructor
+         * @param label The label view
+         */
+        ViewHolder(final TextView label) {
+            super(label);
+            mLabel = label;
+            label.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(final View view) {
+            if (mNode != null) {
+                toggle(mNode);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the members of a json tree whose name or value contains some text, without creating any tree nodes
+ */
+class JsonTreeSearch {
+
+    /**
+     * The initial depth of the path being searched
+     */
+    private static final int INITIAL_PATH_DEPTH = 16;
+
+    /**
+     * The lower case text to look for
+     */
+    private final String mQuery;
+
+    /**
+     * The most matches to collect
+     */
+    private final int mMaxMatches;
+
+    /**
+     * The matches found so far, each is the index of the child to follow at each level
+     */
+    private final List<int[]> mMatches = new ArrayList<>();
+
+    /**
+     * The path of the member currently being searched
+     */
+    private int[] mPath = new int[INITIAL_PATH_DEPTH];
+
+    /**
+     * If the search should stop early
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * Default constructor
+     * @param query The text to look for
+     * @param maxMatches The most matches to collect
+     */
+    JsonTreeSearch(final String query, final int maxMatches) {
+        mQuery = query.toLowerCase(Locale.ROOT);
+        mMaxMatches = maxMatches;
+    }
+
+    /**
+     * Stops the search at the next member
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Searches the members of a json tree in display order
+     * @param root The json tree
+     * @return The paths of the matching members, or null if the search was cancelled
+     */
+    List<int[]> find(final JsonElement root) {
+        if (mQuery.length() > 0) {
+            searchChildren(root, 0);
+        }
+        if (mCancelled) {
+            return null;
+        }
+        return mMatches;
+    }
+
+    /**
+     * Searches the members of a json object or the elements of a json array
+     * @param value The json value
+     * @param depth The depth of the children
+     */
+    private void searchChildren(final JsonElement value, final int depth) {
+        if (value.isJsonObject()) {
+            int index = 0;
+            for (final Map.Entry<String, JsonElement> member : value.getAsJsonObject().entrySet()) {
+                if (!search(member.getKey(), member.getValue(), depth, index++)) {
+                    return;
+                }
+            }
+        } else if (value.isJsonArray()) {
+            final JsonArray array = value.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                if (!search(null, array.get(i), depth, i)) {
+                    return;
+                }
+            }
+        } else {
+            search(null, value, depth, 0);
+        }
+    }
+
+    /**
+     * Searches a single member and its children
+     * @param key The name of the member, or null for an array element
+     * @param value The value of the member
+     * @param depth The depth of the member
+     * @param index The index of the member within its parent
+     * @return If the search should continue
+     */
+    private boolean search(final String key, final JsonElement value, final int depth, final int index) {
+        if (mCancelled || mMatches.size() >= mMaxMatches) {
+            return false;
+        }
+        if (depth == mPath.length) {
+            mPath = Arrays.copyOf(mPath, depth * 2);
+        }
+        mPath[depth] = index;
+
+        final boolean keyMatches = key != null && key.toLowerCase(Locale.ROOT).contains(mQuery);
+        if (keyMatches || (!value.isJsonObject() && !value.isJsonArray()
+                           && value.toString().toLowerCase(Locale.ROOT).contains(mQuery))) {
+            mMatches.add(Arrays.copyOf(mPath, depth + 1));
+        }
+        if (value.isJsonObject() || value.isJsonArray()) {
+            searchChildren(value, depth + 1);
+        }
+        return true;
+    }
+}
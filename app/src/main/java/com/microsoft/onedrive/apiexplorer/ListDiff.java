@@ -0,0 +1,202 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The operations that turn one listing of display items into another, keyed by item id
+ */
+final class ListDiff {
+
+    /**
+     * An item was removed
+     */
+    private static final int REMOVE = 0;
+
+    /**
+     * An item was inserted
+     */
+    private static final int INSERT = 1;
+
+    /**
+     * An item was moved
+     */
+    private static final int MOVE = 2;
+
+    /**
+     * An item was changed in place
+     */
+    private static final int CHANGE = 3;
+
+    /**
+     * Receives the operations of a diff, in order
+     */
+    interface Receiver {
+
+        /**
+         * Called when an item was removed
+         * @param position The position it was removed from
+         */
+        void onRemoved(int position);
+
+        /**
+         * Called when an item was inserted
+         * @param position The position it was inserted at
+         */
+        void onInserted(int position);
+
+        /**
+         * Called when an item was moved
+         * @param fromPosition The position it was moved from
+         * @param toPosition The position it was moved to
+         */
+        void onMoved(int fromPosition, int toPosition);
+
+        /**
+         * Called when an item was changed in place
+         * @param position The position of the item
+         */
+        void onChanged(int position);
+    }
+
+    /**
+     * The operations, each one is the type followed by two positions
+     */
+    private final List<int[]> mOperations;
+
+    /**
+     * Default constructor
+     * @param operations The operations
+     */
+    private ListDiff(final List<int[]> operations) {
+        mOperations = operations;
+    }
+
+    /**
+     * Computes the operations that turn one listing into another
+     * @param oldItems The current listing
+     * @param newItems The new listing
+     * @return The operations
+     */
+    static ListDiff compute(final List<DisplayItem> oldItems, final List<DisplayItem> newItems) {
+        final List<int[]> operations = new ArrayList<>();
+        final Set<String> newIds = new HashSet<>();
+        for (final DisplayItem item : newItems) {
+            newIds.add(item.getId());
+        }
+        final Map<String, DisplayItem> oldById = new HashMap<>();
+        final List<String> working = new ArrayList<>(oldItems.size());
+        for (final DisplayItem item : oldItems) {
+            oldById.put(item.getId(), item);
+            working.add(item.getId());
+        }
+
+        for (int i = working.size() - 1; i >= 0; i--) {
+            if (!newIds.contains(working.get(i))) {
+                working.remove(i);
+                operations.add(new int[] {REMOVE, i, 0});
+            }
+        }
+
+        for (int i = 0; i < newItems.size(); i++) {
+            final DisplayItem item = newItems.get(i);
+            final DisplayItem previous = oldById.get(item.getId());
+            if (previous == null) {
+                working.add(i, item.getId());
+                operations.add(new int[] {INSERT, i, 0});
+                continue;
+            }
+            if (!working.get(i).equals(item.getId())) {
+                final int from = working.indexOf(item.getId());
+                working.remove(from);
+                working.add(i, item.getId());
+                operations.add(new int[] {MOVE, from, i});
+            }
+            if (!previous.hasSameContent(item)) {
+                operations.add(new int[] {CHANGE, i, 0});
+            }
+        }
+        return new ListDiff(operations);
+    }
+
+    /**
+     * Notifies an adapter of the operations, in order
+     * @param adapter The adapter
+     */
+    void dispatchTo(final RecyclerView.Adapter<?> adapter) {
+        dispatchTo(new Receiver() {
+            @Override
+            public void onRemoved(final int position) {
+                adapter.notifyItemRemoved(position);
+            }
+
+            @Override
+            public void onInserted(final int position) {
+                adapter.notifyItemInserted(position);
+            }
+
+            @Override
+            public void onMoved(final int fromPosition, final int toPosition) {
+                adapter.notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(final int position) {
+                adapter.notifyItemChanged(position);
+            }
+        });
+    }
+
+    /**
+     * Hands the operations to a receiver, in order
+     * @param receiver The receiver
+     */
+    void dispatchTo(final Receiver receiver) {
+        for (final int[] operation : mOperations) {
+            switch (operation[0]) {
+                case REMOVE:
+                    receiver.onRemoved(operation[1]);
+                    break;
+                case INSERT:
+                    receiver.onInserted(operation[1]);
+                    break;
+                case MOVE:
+                    receiver.onMoved(operation[1], operation[2]);
+                    break;
+                case CHANGE:
+                    receiver.onChanged(operation[1]);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
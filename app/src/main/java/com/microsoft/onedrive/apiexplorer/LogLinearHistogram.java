@@ -0,0 +1,195 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Counts values in buckets that grow with the magnitude of the value, in the style of HdrHistogram.
+ *
+ * Every power of two is split into the same number of linear sub buckets, so any recorded value is
+ * known to within one part in sixteen whether it is a few microseconds or several minutes, and the
+ * memory used is fixed up front.
+ */
+class LogLinearHistogram {
+
+    /**
+     * The number of bits of a value kept exactly
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of linear sub buckets each power of two is split into
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of bits of the largest value that can be recorded, larger values are clamped
+     */
+    private static final int MAX_VALUE_BITS = 40;
+
+    /**
+     * The largest value that can be recorded
+     */
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /**
+     * The number of buckets
+     */
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    /**
+     * The percentiles included in a snapshot
+     */
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * The names of the percentiles included in a snapshot
+     */
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    /**
+     * The count of values in each bucket
+     */
+    private final long[] mCounts = new long[BUCKET_COUNT];
+
+    /**
+     * The number of values recorded
+     */
+    private long mTotalCount;
+
+    /**
+     * The sum of the values recorded
+     */
+    private long mSum;
+
+    /**
+     * The smallest value recorded
+     */
+    private long mMin = Long.MAX_VALUE;
+
+    /**
+     * The largest value recorded
+     */
+    private long mMax;
+
+    /**
+     * Records a value
+     * @param value The value, negative values are recorded as zero
+     */
+    synchronized void record(final long value) {
+        final long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+        mCounts[bucketIndex(clamped)]++;
+        mTotalCount++;
+        mSum += clamped;
+        mMin = Math.min(mMin, clamped);
+        mMax = Math.max(mMax, clamped);
+    }
+
+    /**
+     * Gets the value below which a share of the recorded values fall
+     * @param percentile The share, between 0 and 1
+     * @return The highest value of the bucket the percentile falls in, or 0 if nothing was recorded
+     */
+    synchronized long getValueAtPercentile(final double percentile) {
+        final long target = Math.max(1, (long) Math.ceil(percentile * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), mMax);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Describes the recorded values as json
+     * @return The count, minimum, maximum, mean, percentiles and the non-empty buckets
+     */
+    synchronized JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("count", mTotalCount);
+        if (mTotalCount == 0) {
+            return json;
+        }
+        json.addProperty("min", mMin);
+        json.addProperty("max", mMax);
+        json.addProperty("mean", (double) mSum / mTotalCount);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.addProperty(PERCENTILE_NAMES[i], getValueAtPercentile(PERCENTILES[i]));
+        }
+        final JsonArray buckets = new JsonArray();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (mCounts[i] != 0) {
+                final JsonArray bucket = new JsonArray();
+                bucket.add(new JsonPrimitive(lowestValue(i)));
+                bucket.add(new JsonPrimitive(mCounts[i]));
+                buckets.add(bucket);
+            }
+        }
+        json.add("buckets", buckets);
+        return json;
+    }
+
+    /**
+     * Finds the bucket of a value
+     * @param value The value, between 0 and the largest value that can be recorded
+     * @return The bucket index
+     */
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT * (shift + 1) + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Finds the smallest value that falls in a bucket
+     * @param index The bucket index
+     * @return The smallest value
+     */
+    private static long lowestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        return (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+    }
+
+    /**
+     * Finds the largest value that falls in a bucket
+     * @param index The bucket index
+     * @return The largest value
+     */
+    private static long highestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,98 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Records the latency, sizes, status code and retries of every request in the metrics registry.
+ *
+ * This is the outermost interceptor, so the latency is what the caller waits for including any
+ * throttling retries, and the response size is the decoded size the json parser reads.
+ */
+class MetricsInterceptor implements Interceptor {
+
+    /**
+     * Where the metrics are recorded
+     */
+    private final MetricsRegistry mRegistry;
+
+    /**
+     * Default constructor
+     * @param registry Where the metrics are recorded
+     */
+    MetricsInterceptor(final MetricsRegistry registry) {
+        mRegistry = registry;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final RetryInterceptor.Counter retries = new RetryInterceptor.Counter();
+        final Request request = chain.request().newBuilder().tag(RetryInterceptor.Counter.class, retries).build();
+        final MetricsRegistry.Endpoint endpoint = mRegistry.getEndpoint(request.method(), request.url());
+        long requestBytes = 0;
+        if (request.body() != null) {
+            requestBytes = Math.max(request.body().contentLength(), 0);
+        }
+
+        final long start = System.nanoTime();
+        final Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (final IOException e) {
+            endpoint.recordFailure(elapsedMicros(start), requestBytes, retries.get());
+            throw e;
+        }
+        endpoint.recordResponse(response.code(), elapsedMicros(start), requestBytes, retries.get());
+
+        final ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        final CountingSource counted = new CountingSource(body.source(), new CountingSource.Listener() {
+            @Override
+            public void onFinished(final long byteCount) {
+                endpoint.recordResponseBytes(byteCount);
+            }
+        });
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(counted)))
+                .build();
+    }
+
+    /**
+     * Gets the time since a start time
+     * @param start The start time, from {@link System#nanoTime()}
+     * @return The elapsed time, in microseconds
+     */
+    private static long elapsedMicros(final long start) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,273 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Collects latency, payload size, status code and retry metrics for every endpoint the application calls.
+ *
+ * Requests are grouped by method and url template, with item ids and path addressed segments replaced
+ * by placeholders, so every listing of a folder counts towards the same endpoint whichever folder it is.
+ */
+class MetricsRegistry {
+
+    /**
+     * The placeholder for an id in a url template
+     */
+    private static final String ID_PLACEHOLDER = "{id}";
+
+    /**
+     * The placeholder for the path of a path addressed item in a url template
+     */
+    private static final String PATH_PLACEHOLDER = "{path}";
+
+    /**
+     * The separator around the path of a path addressed item, as in root:/folder/file:
+     */
+    private static final char PATH_SEPARATOR = ':';
+
+    /**
+     * Segments at least this long are taken to be ids even when they do not follow a collection
+     */
+    private static final int MIN_ID_LENGTH = 24;
+
+    /**
+     * The segments that are followed by the id of one of their members
+     */
+    private static final Set<String> COLLECTIONS = new HashSet<>(Arrays.asList(
+        "children", "drives", "groups", "items", "permissions", "sites", "subscriptions", "thumbnails",
+        "users", "versions"));
+
+    /**
+     * The metrics of each endpoint, by method and url template
+     */
+    private final ConcurrentHashMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<>();
+
+    /**
+     * When collection started, or last restarted
+     */
+    private volatile long mStartedAt = System.currentTimeMillis();
+
+    /**
+     * Gets the metrics of the endpoint a request goes to
+     * @param method The http method
+     * @param url The url of the request
+     * @return The endpoint metrics
+     */
+    Endpoint getEndpoint(final String method, final HttpUrl url) {
+        final String key = method + " " + template(url);
+        Endpoint endpoint = mEndpoints.get(key);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            final Endpoint existing = mEndpoints.putIfAbsent(key, endpoint);
+            if (existing != null) {
+                endpoint = existing;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Takes a snapshot of every endpoint
+     * @return The metrics as json, keyed by method and url template
+     */
+    JsonObject snapshot() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("startedAt", mStartedAt);
+        json.addProperty("takenAt", System.currentTimeMillis());
+        final JsonObject endpoints = new JsonObject();
+        for (final Map.Entry<String, Endpoint> entry : new TreeMap<>(mEndpoints).entrySet()) {
+            endpoints.add(entry.getKey(), entry.getValue().toJson());
+        }
+        json.add("endpoints", endpoints);
+        return json;
+    }
+
+    /**
+     * Forgets everything collected so far
+     */
+    void reset() {
+        mEndpoints.clear();
+        mStartedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Reduces a url to the template of its endpoint
+     * @param url The url
+     * @return The host and path, with ids and item paths replaced by placeholders
+     */
+    static String template(final HttpUrl url) {
+        final StringBuilder sb = new StringBuilder(url.host());
+        final List<String> segments = url.pathSegments();
+        String previous = null;
+        for (int i = 0; i < segments.size(); i++) {
+            final String segment = segments.get(i);
+            if (segment.isEmpty()) {
+                continue;
+            }
+            sb.append('/');
+            final int separator = segment.indexOf(PATH_SEPARATOR);
+            if (separator == -1) {
+                sb.append(templateSegment(previous, segment));
+                previous = segment;
+                continue;
+            }
+
+            sb.append(templateSegment(previous, segment.substring(0, separator)))
+              .append(PATH_SEPARATOR)
+              .append(PATH_PLACEHOLDER)
+              .append(PATH_SEPARATOR);
+            if (separator == segment.length() - 1) {
+                while (i + 1 < segments.size() && segments.get(i + 1).indexOf(PATH_SEPARATOR) == -1) {
+                    i++;
+                }
+                i++;
+            }
+            previous = null;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces a path segment with a placeholder if it is an id
+     * @param previous The segment before it, or null
+     * @param segment The segment
+     * @return The segment for the template
+     */
+    private static String templateSegment(final String previous, final String segment) {
+        if ((previous != null && COLLECTIONS.contains(previous) && !COLLECTIONS.contains(segment))
+            || segment.length() >= MIN_ID_LENGTH
+            || segment.indexOf('!') != -1) {
+            return ID_PLACEHOLDER;
+        }
+        return segment;
+    }
+
+    /**
+     * The metrics of a single endpoint
+     */
+    static final class Endpoint {
+
+        /**
+         * The time to the response headers, in microseconds, including any retries
+         */
+        private final LogLinearHistogram mLatency = new LogLinearHistogram();
+
+        /**
+         * The decoded sizes of the response bodies, in bytes
+         */
+        private final LogLinearHistogram mResponseBytes = new LogLinearHistogram();
+
+        /**
+         * The number of responses with each status code
+         */
+        private final Map<Integer, Long> mStatusCodes = new TreeMap<>();
+
+        /**
+         * The number of requests that failed without a response
+         */
+        private long mFailures;
+
+        /**
+         * The number of times requests were retried
+         */
+        private long mRetries;
+
+        /**
+         * The bytes sent in request bodies
+         */
+        private long mRequestBytes;
+
+        /**
+         * Records a request that received a response
+         * @param statusCode The status code of the response
+         * @param latencyMicros The time to the response headers, in microseconds
+         * @param requestBytes The bytes sent in the request body
+         * @param retries The number of times the request was retried
+         */
+        synchronized void recordResponse(final int statusCode,
+                                         final long latencyMicros,
+                                         final long requestBytes,
+                                         final int retries) {
+            mLatency.record(latencyMicros);
+            Long count = mStatusCodes.get(statusCode);
+            if (count == null) {
+                count = 0L;
+            }
+            mStatusCodes.put(statusCode, count + 1);
+            mRequestBytes += requestBytes;
+            mRetries += retries;
+        }
+
+        /**
+         * Records a request that failed without a response
+         * @param latencyMicros The time until it failed, in microseconds
+         * @param requestBytes The bytes of the request body
+         * @param retries The number of times the request was retried
+         */
+        synchronized void recordFailure(final long latencyMicros, final long requestBytes, final int retries) {
+            mLatency.record(latencyMicros);
+            mFailures++;
+            mRequestBytes += requestBytes;
+            mRetries += retries;
+        }
+
+        /**
+         * Records the size of a response body once it has been read
+         * @param responseBytes The decoded size of the body, in bytes
+         */
+        void recordResponseBytes(final long responseBytes) {
+            mResponseBytes.record(responseBytes);
+        }
+
+        /**
+         * Describes this endpoint as json
+         * @return The metrics
+         */
+        synchronized JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            final JsonObject statusCodes = new JsonObject();
+            for (final Map.Entry<Integer, Long> entry : mStatusCodes.entrySet()) {
+                statusCodes.addProperty(entry.getKey().toString(), entry.getValue());
+            }
+            json.add("statusCodes", statusCodes);
+            json.addProperty("failures", mFailures);
+            json.addProperty("retries", mRetries);
+            json.addProperty("requestBytes", mRequestBytes);
+            json.add("latencyMicros", mLatency.toJson());
+            json.add("responseBytes", mResponseBytes.toJson());
+            return json;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.microsoft.graph.http.IConnection;
+import com.microsoft.graph.http.IHttpRequest;
+import com.microsoft.graph.options.HeaderOption;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A single Graph request run over the shared http client.
+ *
+ * The Graph http provider writes the request body before asking for the response, so the body is
+ * buffered and the call is only made once the response is first needed. The provider never opens nor
+ * closes a response it expects no body for, so such a response is closed as soon as it arrives.
+ */
+class OkHttpConnection implements IConnection {
+
+    /**
+     * The name of the content type header
+     */
+    private static final String CONTENT_TYPE = "Content-Type";
+
+    /**
+     * The shared http client
+     */
+    private final OkHttpClient mClient;
+
+    /**
+     * The request being built
+     */
+    private final Request.Builder mRequest;
+
+    /**
+     * The http method of the request
+     */
+    private final String mMethod;
+
+    /**
+     * The content type of the request body, if any
+     */
+    private String mContentType;
+
+    /**
+     * The request body written so far, if any
+     */
+    private ByteArrayOutputStream mBody;
+
+    /**
+     * If redirects should be followed
+     */
+    private boolean mFollowRedirects = true;
+
+    /**
+     * The response, once the call has been made
+     */
+    private Response mResponse;
+
+    /**
+     * Default constructor
+     * @param client The shared http client
+     * @param request The Graph request
+     */
+    OkHttpConnection(final OkHttpClient client, final IHttpRequest request) {
+        mClient = client;
+        mMethod = request.getHttpMethod().toString();
+        mRequest = new Request.Builder().url(request.getRequestUrl());
+        for (final HeaderOption header : request.getHeaders()) {
+            addRequestHeader(header.getName(), header.getValue().toString());
+        }
+    }
+
+    @Override
+    public void addRequestHeader(final String headerName, final String headerValue) {
+        if (CONTENT_TYPE.equalsIgnoreCase(headerName)) {
+            mContentType = headerValue;
+        } else {
+            mRequest.addHeader(headerName, headerValue);
+        }
+    }
+
+    @Override
+    public void setFollowRedirects(final boolean followRedirects) {
+        mFollowRedirects = followRedirects;
+    }
+
+    /**
+     * The request body length is taken from the buffered body
+     * @param length The length of the request body
+     */
+    public void setContentLength(final int length) {
+        if (mBody == null) {
+            mBody = new ByteArrayOutputStream(length);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (mBody == null) {
+            mBody = new ByteArrayOutputStream();
+        }
+        return mBody;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return execute().body().byteStream();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return execute().code();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return execute().message();
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return mMethod;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        final Map<String, String> headers = new HashMap<>();
+        if (mResponse != null) {
+            for (final String name : mResponse.headers().names()) {
+                headers.put(name, mResponse.header(name));
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public void close() {
+        if (mResponse != null) {
+            mResponse.close();
+        }
+    }
+
+    /**
+     * Checks if a http method must carry a request body
+     * @param method The http method
+     * @return If a body is required
+     */
+    private static boolean requiresBody(final String method) {
+        return "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+    }
+
+    /**
+     * Makes the call the first time the response is needed
+     * @return The response
+     * @throws IOException If the call failed
+     */
+    private Response execute() throws IOException {
+        if (mResponse == null) {
+            RequestBody body = null;
+            MediaType contentType = null;
+            if (mContentType != null) {
+                contentType = MediaType.parse(mContentType);
+            }
+            if (mBody != null) {
+                body = RequestBody.create(contentType, mBody.toByteArray());
+            } else if (requiresBody(mMethod)) {
+                body = RequestBody.create(contentType, new byte[0]);
+            }
+            mRequest.method(mMethod, body);
+
+            OkHttpClient client = mClient;
+            if (!mFollowRedirects) {
+                client = mClient.newBuilder().followRedirects(false).followSslRedirects(false).build();
+            }
+            final Request request = mRequest.build();
+            final Response response = client.newCall(request).execute();
+            if (RetryInterceptor.hasBody(request, response)) {
+                mResponse = response;
+            } else {
+                final MediaType responseType = response.body().contentType();
+                response.close();
+                mResponse = response.newBuilder().body(ResponseBody.create(responseType, new byte[0])).build();
+            }
+        }
+        return mResponse;
+    }
+}
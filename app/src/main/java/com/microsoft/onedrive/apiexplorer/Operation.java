@@ -0,0 +1,163 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+/**
+ * A change the user made that is waiting to be sent to the service
+ */
+final class Operation {
+
+    /**
+     * The kinds of change
+     */
+    enum Kind {
+        /**
+         * Creates a folder, the item id is the local id it is shown under until it exists
+         */
+        CreateFolder,
+
+        /**
+         * Gives an item a new name
+         */
+        Rename,
+
+        /**
+         * Deletes an item
+         */
+        Delete,
+
+        /**
+         * Uploads a file, the item id is the local id it is shown under until it exists
+         */
+        Upload
+    }
+
+    /**
+     * The position of this operation in the log
+     */
+    private final long mSequence;
+
+    /**
+     * The kind of change
+     */
+    private final Kind mKind;
+
+    /**
+     * The id of the item changed
+     */
+    private final String mItemId;
+
+    /**
+     * The id of the folder an item is created in, null for other kinds
+     */
+    private final String mParentId;
+
+    /**
+     * The name of the item, null for deletes
+     */
+    private final String mName;
+
+    /**
+     * The file holding the content to upload, null for other kinds
+     */
+    private final String mContentPath;
+
+    /**
+     * Default constructor
+     * @param sequence The position of this operation in the log, or -1 if it has not been logged yet
+     * @param kind The kind of change
+     * @param itemId The id of the item changed
+     * @param parentId The id of the folder an item is created in
+     * @param name The name of the item
+     * @param contentPath The file holding the content to upload
+     */
+    Operation(final long sequence,
+              final Kind kind,
+              final String itemId,
+              final String parentId,
+              final String name,
+              final String contentPath) {
+        mSequence = sequence;
+        mKind = kind;
+        mItemId = itemId;
+        mParentId = parentId;
+        mName = name;
+        mContentPath = contentPath;
+    }
+
+    /**
+     * Gets the position of this operation in the log
+     * @return The sequence number
+     */
+    long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Gets the kind of change
+     * @return The kind
+     */
+    Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * Gets the id of the item changed
+     * @return The item id
+     */
+    String getItemId() {
+        return mItemId;
+    }
+
+    /**
+     * Gets the id of the folder an item is created in
+     * @return The parent id
+     */
+    String getParentId() {
+        return mParentId;
+    }
+
+    /**
+     * Gets the name of the item
+     * @return The name
+     */
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the file holding the content to upload
+     * @return The content path
+     */
+    String getContentPath() {
+        return mContentPath;
+    }
+
+    /**
+     * Checks if this operation creates its item
+     * @return If the item only exists locally until this operation is sent
+     */
+    boolean isCreate() {
+        return mKind == Kind.CreateFolder || mKind == Kind.Upload;
+    }
+}
@@ -0,0 +1,323 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the changes waiting to be sent to the service, in the order they were made.
+ *
+ * Each new change is folded into the ones already waiting for the same item, so a folder that is
+ * created, renamed and deleted offline never reaches the service at all and a rename followed by a
+ * delete only sends the delete.
+ */
+class OperationLog extends SQLiteOpenHelper {
+
+    /**
+     * The name of the database file
+     */
+    private static final String DATABASE_NAME = "operations.db";
+
+    /**
+     * The schema version
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    /**
+     * The table holding the waiting operations
+     */
+    private static final String OPERATIONS = "operations";
+
+    /**
+     * The column holding the position of an operation in the log
+     */
+    private static final String SEQUENCE = "seq";
+
+    /**
+     * The column holding the kind of an operation
+     */
+    private static final String KIND = "kind";
+
+    /**
+     * The column holding the id of the item changed
+     */
+    private static final String ITEM_ID = "item_id";
+
+    /**
+     * The column holding the id of the folder an item is created in
+     */
+    private static final String PARENT_ID = "parent_id";
+
+    /**
+     * The column holding the name of the item
+     */
+    private static final String NAME = "name";
+
+    /**
+     * The column holding the file with the content to upload
+     */
+    private static final String CONTENT_PATH = "content_path";
+
+    /**
+     * Every column, in the order they are read
+     */
+    private static final String[] COLUMNS = {SEQUENCE, KIND, ITEM_ID, PARENT_ID, NAME, CONTENT_PATH};
+
+    /**
+     * Default constructor
+     * @param context The context to open the database in
+     */
+    OperationLog(final Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + OPERATIONS + " ("
+                   + SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                   + KIND + " TEXT NOT NULL, "
+                   + ITEM_ID + " TEXT NOT NULL, "
+                   + PARENT_ID + " TEXT, "
+                   + NAME + " TEXT, "
+                   + CONTENT_PATH + " TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + OPERATIONS);
+        onCreate(db);
+    }
+
+    /**
+     * Gets the waiting operations
+     * @return The operations, oldest first
+     */
+    List<Operation> getPending() {
+        return query(getReadableDatabase(), null, null);
+    }
+
+    /**
+     * Adds an operation, folding it into the operations already waiting for the same item
+     * @param operation The operation
+     * @param replacedIds The list to add the local ids of items that will now never be created to
+     * @return The content files of uploads that will no longer be sent
+     */
+    List<String> append(final Operation operation, final List<String> replacedIds) {
+        final List<String> dropped = new ArrayList<>();
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            switch (operation.getKind()) {
+                case Rename:
+                    appendRename(db, operation);
+                    break;
+                case Delete:
+                    appendDelete(db, operation, dropped);
+                    break;
+                case Upload:
+                    for (final Operation upload : query(db,
+                                                        KIND + " = ? AND " + PARENT_ID + " = ? AND " + NAME + " = ?",
+                                                        new String[] {Operation.Kind.Upload.name(),
+                                                                      operation.getParentId(),
+                                                                      operation.getName()})) {
+                        discard(db, upload.getItemId(), dropped);
+                        replacedIds.add(upload.getItemId());
+                    }
+                    insert(db, operation);
+                    break;
+                default:
+                    insert(db, operation);
+                    break;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return dropped;
+    }
+
+    /**
+     * Removes an operation that has been sent
+     * @param operation The operation
+     */
+    void remove(final Operation operation) {
+        getWritableDatabase().delete(OPERATIONS,
+                                     SEQUENCE + " = ?",
+                                     new String[] {Long.toString(operation.getSequence())});
+    }
+
+    /**
+     * Removes every operation on an item that will never exist, along with those on the items created in it
+     * @param itemId The local id of the item
+     * @return The content files of uploads that will no longer be sent
+     */
+    List<String> discard(final String itemId) {
+        final List<String> dropped = new ArrayList<>();
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            discard(db, itemId, dropped);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return dropped;
+    }
+
+    /**
+     * Points the waiting operations at the id the service gave an item created locally
+     * @param localId The local id of the item
+     * @param itemId The id of the item on the service
+     */
+    void replaceId(final String localId, final String itemId) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final ContentValues item = new ContentValues();
+            item.put(ITEM_ID, itemId);
+            db.update(OPERATIONS, item, ITEM_ID + " = ?", new String[] {localId});
+            final ContentValues parent = new ContentValues();
+            parent.put(PARENT_ID, itemId);
+            db.update(OPERATIONS, parent, PARENT_ID + " = ?", new String[] {localId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Adds a rename, renaming the pending create of the item or replacing an earlier rename instead
+     * @param db The database, in a transaction
+     * @param rename The rename
+     */
+    private static void appendRename(final SQLiteDatabase db, final Operation rename) {
+        final ContentValues values = new ContentValues();
+        values.put(NAME, rename.getName());
+        if (db.update(OPERATIONS,
+                      values,
+                      ITEM_ID + " = ? AND " + KIND + " IN (?, ?, ?)",
+                      new String[] {rename.getItemId(),
+                                    Operation.Kind.CreateFolder.name(),
+                                    Operation.Kind.Upload.name(),
+                                    Operation.Kind.Rename.name()}) == 0) {
+            insert(db, rename);
+        }
+    }
+
+    /**
+     * Adds a delete, dropping every earlier change to the item and only keeping the delete if the item
+     * exists on the service
+     * @param db The database, in a transaction
+     * @param delete The delete
+     * @param dropped The list to add the content files of dropped uploads to
+     */
+    private static void appendDelete(final SQLiteDatabase db, final Operation delete, final List<String> dropped) {
+        boolean created = false;
+        for (final Operation pending : query(db, ITEM_ID + " = ?", new String[] {delete.getItemId()})) {
+            created |= pending.isCreate();
+        }
+        discard(db, delete.getItemId(), dropped);
+        if (!created) {
+            insert(db, delete);
+        }
+    }
+
+    /**
+     * Removes every operation on an item and on the items created in it
+     * @param db The database, in a transaction
+     * @param itemId The id of the item
+     * @param dropped The list to add the content files of dropped uploads to
+     */
+    private static void discard(final SQLiteDatabase db, final String itemId, final List<String> dropped) {
+        for (final Operation child : query(db, PARENT_ID + " = ?", new String[] {itemId})) {
+            discard(db, child.getItemId(), dropped);
+        }
+        for (final Operation pending : query(db, ITEM_ID + " = ?", new String[] {itemId})) {
+            remove(db, pending, dropped);
+        }
+    }
+
+    /**
+     * Removes an operation
+     * @param db The database, in a transaction
+     * @param operation The operation
+     * @param dropped The list to add the content file of a dropped upload to
+     */
+    private static void remove(final SQLiteDatabase db, final Operation operation, final List<String> dropped) {
+        db.delete(OPERATIONS, SEQUENCE + " = ?", new String[] {Long.toString(operation.getSequence())});
+        if (operation.getContentPath() != null) {
+            dropped.add(operation.getContentPath());
+        }
+    }
+
+    /**
+     * Writes a new operation at the end of the log
+     * @param db The database
+     * @param operation The operation
+     */
+    private static void insert(final SQLiteDatabase db, final Operation operation) {
+        final ContentValues values = new ContentValues();
+        values.put(KIND, operation.getKind().name());
+        values.put(ITEM_ID, operation.getItemId());
+        values.put(PARENT_ID, operation.getParentId());
+        values.put(NAME, operation.getName());
+        values.put(CONTENT_PATH, operation.getContentPath());
+        db.insert(OPERATIONS, null, values);
+    }
+
+    /**
+     * Reads operations from the log
+     * @param db The database
+     * @param selection The filter, or null for every operation
+     * @param selectionArgs The arguments of the filter
+     * @return The operations, oldest first
+     */
+    private static List<Operation> query(final SQLiteDatabase db,
+                                         final String selection,
+                                         final String[] selectionArgs) {
+        final List<Operation> operations = new ArrayList<>();
+        final Cursor cursor = db.query(OPERATIONS, COLUMNS, selection, selectionArgs, null, null, SEQUENCE);
+        try {
+            while (cursor.moveToNext()) {
+                final String kind = cursor.getString(cursor.getColumnIndexOrThrow(KIND));
+                operations.add(new Operation(cursor.getLong(cursor.getColumnIndexOrThrow(SEQUENCE)),
+                                             Operation.Kind.valueOf(kind),
+                                             cursor.getString(cursor.getColumnIndexOrThrow(ITEM_ID)),
+                                             cursor.getString(cursor.getColumnIndexOrThrow(PARENT_ID)),
+                                             cursor.getString(cursor.getColumnIndexOrThrow(NAME)),
+                                             cursor.getString(cursor.getColumnIndexOrThrow(CONTENT_PATH))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return operations;
+    }
+}
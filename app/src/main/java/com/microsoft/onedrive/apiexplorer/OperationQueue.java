@@ -0,0 +1,446 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.core.GraphErrorCodes;
+import com.microsoft.graph.extensions.DriveItem;
+import com.microsoft.graph.extensions.File;
+import com.microsoft.graph.extensions.Folder;
+import com.microsoft.graph.extensions.IGraphServiceClient;
+import com.microsoft.graph.extensions.ItemReference;
+import com.microsoft.graph.options.Option;
+import com.microsoft.graph.options.QueryOption;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Applies changes to the views straight away and sends them to the service when it can be reached.
+ *
+ * Every change is written to the operation log before it is shown, and the log is replayed in order
+ * whenever a change is made while connected or connectivity returns. Items created offline are shown
+ * under a local id until the service gives them a real one.
+ */
+class OperationQueue {
+
+    /**
+     * The prefix of the ids given to items that only exist locally
+     */
+    private static final String LOCAL_ID_PREFIX = "local:";
+
+    /**
+     * The directory within the files directory that holds the content of waiting uploads
+     */
+    private static final String CONTENT_DIRECTORY = "pending_uploads";
+
+    /**
+     * The errors that mean the service will never accept an operation, so it is discarded rather than
+     * retried
+     */
+    private static final GraphErrorCodes[] REJECTIONS = {
+        GraphErrorCodes.AccessDenied,
+        GraphErrorCodes.InvalidRequest,
+        GraphErrorCodes.ItemNotFound,
+        GraphErrorCodes.NameAlreadyExists,
+        GraphErrorCodes.NotAllowed,
+        GraphErrorCodes.QuotaLimitReached,
+    };
+
+    /**
+     * The application
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The log of waiting operations
+     */
+    private final OperationLog mLog;
+
+    /**
+     * The ids the service gave items that were created locally, for changes made before the views caught up
+     */
+    private final Map<String, String> mCreatedIds = new ConcurrentHashMap<>();
+
+    /**
+     * Sends logged operations one at a time, in order
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Posts messages to the main thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Default constructor
+     * @param application The application
+     */
+    OperationQueue(final BaseApplication application) {
+        mApplication = application;
+        mLog = new OperationLog(application);
+    }
+
+    /**
+     * Checks if an item only exists locally so far
+     * @param itemId The item id
+     * @return If the item is waiting to be created
+     */
+    static boolean isLocalId(final String itemId) {
+        return itemId != null && itemId.startsWith(LOCAL_ID_PREFIX);
+    }
+
+    /**
+     * Creates a folder
+     * @param parentId The id of the folder to create it in
+     * @param name The name of the folder
+     */
+    void createFolder(final String parentId, final String name) {
+        final DriveItem item = newLocalItem(parentId, name);
+        item.folder = new Folder();
+        mApplication.getItemChangeBus().publishChanged(item);
+        append(new Operation(-1, Operation.Kind.CreateFolder, item.id, parentId, name, null));
+    }
+
+    /**
+     * Renames an item
+     * @param item The item
+     * @param name The new name
+     */
+    void rename(final DriveItem item, final String name) {
+        final DriveItem renamed = new DriveItem();
+        renamed.id = item.id;
+        renamed.name = name;
+        renamed.parentReference = item.parentReference;
+        renamed.folder = item.folder;
+        renamed.file = item.file;
+        renamed.size = item.size;
+        renamed.cTag = item.cTag;
+        renamed.eTag = item.eTag;
+        renamed.thumbnails = item.thumbnails;
+        renamed.image = item.image;
+        renamed.photo = item.photo;
+        renamed.audio = item.audio;
+        renamed.video = item.video;
+        renamed.specialFolder = item.specialFolder;
+        mApplication.getItemChangeBus().publishChanged(renamed);
+        append(new Operation(-1, Operation.Kind.Rename, item.id, null, name, null));
+    }
+
+    /**
+     * Deletes an item
+     * @param item The item
+     */
+    void delete(final DriveItem item) {
+        mApplication.getItemChangeBus().publishRemoved(item.id);
+        append(new Operation(-1, Operation.Kind.Delete, item.id, null, item.name, null));
+    }
+
+    /**
+     * Uploads a file, called off the main thread as the content is written to disk first
+     * @param parentId The id of the folder to upload to
+     * @param name The name of the file
+     * @param content The content of the file
+     * @throws IOException If the content could not be saved
+     */
+    void upload(final String parentId, final String name, final byte[] content) throws IOException {
+        final java.io.File directory = new java.io.File(mApplication.getFilesDir(), CONTENT_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        final java.io.File contentFile = new java.io.File(directory, UUID.randomUUID().toString());
+        final FileOutputStream out = new FileOutputStream(contentFile);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        final DriveItem item = newLocalItem(parentId, name);
+        item.file = new File();
+        item.size = (long) content.length;
+        mApplication.getItemChangeBus().publishChanged(item);
+        append(new Operation(-1, Operation.Kind.Upload, item.id, parentId, name, contentFile.getPath()));
+    }
+
+    /**
+     * Sends the waiting operations if the service can be reached
+     */
+    void replay() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                replayPending();
+            }
+        });
+    }
+
+    /**
+     * Logs an operation and sends it if the service can be reached.
+     *
+     * The ids are resolved on the replay thread, so a create that was still being sent when the operation
+     * was made has finished and its real id is known.
+     * @param operation The operation
+     */
+    private void append(final Operation operation) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> replacedIds = new ArrayList<>();
+                deleteContent(mLog.append(new Operation(-1,
+                                                        operation.getKind(),
+                                                        resolve(operation.getItemId()),
+                                                        resolve(operation.getParentId()),
+                                                        operation.getName(),
+                                                        operation.getContentPath()),
+                                          replacedIds));
+                // An upload replacing a pending one leaves the row of the one it replaced with nothing to send
+                for (final String itemId : replacedIds) {
+                    mApplication.getItemChangeBus().publishRemoved(itemId);
+                }
+                replayPending();
+            }
+        });
+    }
+
+    /**
+     * Sends the waiting operations in order, stopping at the first one that could not reach the service.
+     *
+     * The log is read again before each operation, as sending a create rewrites the local id of the item in
+     * the operations that follow it.
+     */
+    private void replayPending() {
+        if (!mApplication.isConnected()) {
+            return;
+        }
+        final IGraphServiceClient client = mApplication.getGraphServiceClient();
+        while (true) {
+            final List<Operation> pending = mLog.getPending();
+            if (pending.isEmpty()) {
+                return;
+            }
+            final Operation operation = pending.get(0);
+            try {
+                send(client, operation);
+            } catch (final ClientException e) {
+                if (!isRejection(e)) {
+                    Log.w(getClass().getSimpleName(), "Unable to send " + operation.getKind() + ", will retry", e);
+                    return;
+                }
+                Log.w(getClass().getSimpleName(), "Discarding rejected " + operation.getKind(), e);
+                discard(operation);
+                continue;
+            } catch (final IOException e) {
+                Log.e(getClass().getSimpleName(), "Unable to read the content to upload", e);
+                discard(operation);
+                continue;
+            }
+            mLog.remove(operation);
+            if (operation.getContentPath() != null) {
+                deleteContent(Collections.singletonList(operation.getContentPath()));
+            }
+        }
+    }
+
+    /**
+     * Sends a single operation and publishes the item the service returned in place of the local one
+     * @param client The service client
+     * @param operation The operation
+     * @throws IOException If the content to upload could not be read
+     */
+    private void send(final IGraphServiceClient client, final Operation operation) throws IOException {
+        final ItemChangeBus bus = mApplication.getItemChangeBus();
+        switch (operation.getKind()) {
+            case CreateFolder:
+                final DriveItem folder = new DriveItem();
+                folder.name = operation.getName();
+                folder.folder = new Folder();
+                replaceLocalItem(operation, client.getMe()
+                                                  .getDrive()
+                                                  .getItems(operation.getParentId())
+                                                  .getChildren()
+                                                  .buildRequest()
+                                                  .post(folder));
+                break;
+            case Rename:
+                final DriveItem update = new DriveItem();
+                update.name = operation.getName();
+                bus.publishChanged(client.getMe()
+                                         .getDrive()
+                                         .getItems(operation.getItemId())
+                                         .buildRequest()
+                                         .patch(update));
+                break;
+            case Delete:
+                client.getMe()
+                      .getDrive()
+                      .getItems(operation.getItemId())
+                      .buildRequest()
+                      .delete();
+                break;
+            case Upload:
+                final Option option = new QueryOption("@name.conflictBehavior", "fail");
+                final DriveItem uploaded = client.getMe()
+                                                 .getDrive()
+                                                 .getItems(operation.getParentId())
+                                                 .getChildren()
+                                                 .byId(operation.getName())
+                                                 .getContent()
+                                                 .buildRequest(Collections.singletonList(option))
+                                                 .put(readContent(operation.getContentPath()));
+                replaceLocalItem(operation, uploaded);
+                showMessage(mApplication.getString(R.string.upload_complete, uploaded.name));
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation.getKind());
+        }
+    }
+
+    /**
+     * Swaps an item shown under a local id for the one the service created
+     * @param operation The operation that created the item
+     * @param created The item the service created
+     */
+    private void replaceLocalItem(final Operation operation, final DriveItem created) {
+        mCreatedIds.put(operation.getItemId(), created.id);
+        mLog.replaceId(operation.getItemId(), created.id);
+        final ItemChangeBus bus = mApplication.getItemChangeBus();
+        bus.publishRemoved(operation.getItemId());
+        bus.publishChanged(created);
+    }
+
+    /**
+     * Drops an operation the service will never accept, undoing it in the views where that is possible
+     * @param operation The operation
+     */
+    private void discard(final Operation operation) {
+        if (operation.isCreate()) {
+            deleteContent(mLog.discard(operation.getItemId()));
+            mApplication.getItemChangeBus().publishRemoved(operation.getItemId());
+        } else {
+            mLog.remove(operation);
+        }
+        showMessage(mApplication.getString(R.string.operation_discarded, operation.getName()));
+    }
+
+    /**
+     * Gets the id the service knows an item by
+     * @param itemId The id the item is shown under, or null
+     * @return The id of the created item if it was created locally and has since been sent, otherwise the same id
+     */
+    private String resolve(final String itemId) {
+        if (itemId == null) {
+            return null;
+        }
+        final String createdId = mCreatedIds.get(itemId);
+        if (createdId != null) {
+            return createdId;
+        }
+        return itemId;
+    }
+
+    /**
+     * Checks if the service refused an operation outright
+     * @param error The error
+     * @return If sending the operation again can never succeed
+     */
+    private static boolean isRejection(final ClientException error) {
+        for (final GraphErrorCodes code : REJECTIONS) {
+            if (error.isError(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the item shown for something that only exists locally
+     * @param parentId The id of the folder holding it
+     * @param name The name of the item
+     * @return The item
+     */
+    private static DriveItem newLocalItem(final String parentId, final String name) {
+        final DriveItem item = new DriveItem();
+        item.id = LOCAL_ID_PREFIX + UUID.randomUUID();
+        item.name = name;
+        item.parentReference = new ItemReference();
+        item.parentReference.id = parentId;
+        return item;
+    }
+
+    /**
+     * Reads the content of a waiting upload
+     * @param path The file holding the content
+     * @return The content
+     * @throws IOException If the file could not be read
+     */
+    private static byte[] readContent(final String path) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            final byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            return content;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Deletes the content files of uploads that will not be sent
+     * @param paths The files
+     */
+    private static void deleteContent(final List<String> paths) {
+        for (final String path : paths) {
+            if (!new java.io.File(path).delete()) {
+                Log.w(OperationQueue.class.getSimpleName(), "Unable to delete " + path);
+            }
+        }
+    }
+
+    /**
+     * Shows a message from the replay thread
+     * @param message The message
+     */
+    private void showMessage(final String message) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(mApplication, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,291 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Retries throttled requests and adapts how many requests run at once against each host.
+ *
+ * A 429 or 503 response is retried after the delay the service asks for in Retry-After, or otherwise
+ * after an exponential backoff with full jitter. When the service asks for a longer wait than is worth
+ * blocking for, the throttled response is handed back instead of retrying early. Each host gets its own
+ * limiter so throttling on the Graph endpoint never slows down thumbnail downloads from the content hosts,
+ * and a request counts against it until its body has been read or closed.
+ */
+class RetryInterceptor implements Interceptor {
+
+    /**
+     * The status code the service uses when a client sends too many requests
+     */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The status code the service uses when it is overloaded
+     */
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * The http method whose responses never have a body
+     */
+    private static final String HEAD = "HEAD";
+
+    /**
+     * The status code of a response that tells the client to reset its view, which never has a body
+     */
+    private static final int HTTP_RESET_CONTENT = 205;
+
+    /**
+     * The name of the header carrying the delay the service asks for
+     */
+    private static final String RETRY_AFTER = "Retry-After";
+
+    /**
+     * The number of times a throttled request is retried
+     */
+    private static final int MAX_RETRIES = 5;
+
+    /**
+     * The backoff before the first retry, in milliseconds
+     */
+    private static final long BASE_BACKOFF_MILLISECONDS = 500;
+
+    /**
+     * The longest backoff between retries, in milliseconds
+     */
+    private static final long MAX_BACKOFF_MILLISECONDS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The longest Retry-After that is waited out, in milliseconds, longer ones are given up on
+     */
+    private static final long MAX_RETRY_AFTER_MILLISECONDS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * The starting concurrency for each host
+     */
+    private final int mInitialLimit;
+
+    /**
+     * The highest concurrency for each host
+     */
+    private final int mMaxLimit;
+
+    /**
+     * The limiter for each host
+     */
+    private final ConcurrentHashMap<String, AimdLimiter> mLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Jitters the backoff
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Default constructor
+     * @param initialLimit The starting concurrency for each host
+     * @param maxLimit The highest concurrency for each host
+     */
+    RetryInterceptor(final int initialLimit, final int maxLimit) {
+        mInitialLimit = initialLimit;
+        mMaxLimit = maxLimit;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        final AimdLimiter limiter = getLimiter(request.url().host());
+        for (int attempt = 0;; attempt++) {
+            final Response response = proceed(chain, request, limiter);
+            if (!isThrottled(response) || attempt == MAX_RETRIES) {
+                return response;
+            }
+
+            final long delay = getRetryDelay(response, attempt);
+            if (delay > MAX_RETRY_AFTER_MILLISECONDS) {
+                Log.w(getClass().getSimpleName(), "Throttled with " + response.code() + " by " + request.url().host()
+                                                  + ", giving up rather than waiting " + delay + "ms");
+                return response;
+            }
+            response.close();
+            final Counter counter = request.tag(Counter.class);
+            if (counter != null) {
+                counter.mRetries.incrementAndGet();
+            }
+            Log.w(getClass().getSimpleName(), "Throttled with " + response.code() + " by " + request.url().host()
+                                              + ", retrying in " + delay + "ms, concurrency " + limiter.getLimit());
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Runs a request once it is allowed by the limiter, which is released once the body is read or closed,
+     * or straight away if there is no body that anyone would read
+     * @param chain The interceptor chain
+     * @param request The request
+     * @param limiter The limiter of the request host
+     * @return The response
+     * @throws IOException If the request failed
+     */
+    private static Response proceed(final Chain chain, final Request request, final AimdLimiter limiter)
+            throws IOException {
+        final long ticket;
+        try {
+            ticket = limiter.acquire();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting to send " + request.url());
+        }
+        final Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (final IOException | RuntimeException e) {
+            // A transport failure says nothing about how much the host can take
+            limiter.release();
+            throw e;
+        }
+
+        final ResponseBody body = response.body();
+        if (isThrottled(response) || body == null || !hasBody(request, response)) {
+            limiter.release(ticket, isThrottled(response));
+            return response;
+        }
+        final CountingSource released = new CountingSource(body.source(), new CountingSource.Listener() {
+            @Override
+            public void onFinished(final long byteCount) {
+                limiter.release(ticket, false);
+            }
+        });
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(released)))
+                .build();
+    }
+
+    /**
+     * Gets the limiter for a host
+     * @param host The host
+     * @return The limiter
+     */
+    private AimdLimiter getLimiter(final String host) {
+        AimdLimiter limiter = mLimiters.get(host);
+        if (limiter == null) {
+            limiter = new AimdLimiter(mInitialLimit, 1, mMaxLimit);
+            final AimdLimiter existing = mLimiters.putIfAbsent(host, limiter);
+            if (existing != null) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Checks if the service throttled a request
+     * @param response The response
+     * @return If the request should be retried later
+     */
+    private static boolean isThrottled(final Response response) {
+        return response.code() == HTTP_TOO_MANY_REQUESTS || response.code() == HTTP_SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Checks if a response carries a body, many callers never open or close a body they do not expect
+     * @param request The request
+     * @param response The response
+     * @return If there may be a body to read
+     */
+    static boolean hasBody(final Request request, final Response response) {
+        final ResponseBody body = response.body();
+        return !HEAD.equals(request.method())
+               && response.code() != HttpURLConnection.HTTP_NO_CONTENT
+               && response.code() != HTTP_RESET_CONTENT
+               && response.code() != HttpURLConnection.HTTP_NOT_MODIFIED
+               && (body == null || body.contentLength() != 0);
+    }
+
+    /**
+     * Works out how long to wait before retrying
+     * @param response The throttled response
+     * @param attempt The number of retries made so far
+     * @return The delay, in milliseconds
+     */
+    private long getRetryDelay(final Response response, final int attempt) {
+        final String retryAfter = response.header(RETRY_AFTER);
+        if (retryAfter != null) {
+            try {
+                return Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), 0);
+            } catch (final NumberFormatException ignored) {
+                final Date date = response.headers().getDate(RETRY_AFTER);
+                if (date != null) {
+                    return Math.max(date.getTime() - System.currentTimeMillis(), 0);
+                }
+            }
+        }
+        final long ceiling = Math.min(BASE_BACKOFF_MILLISECONDS << attempt, MAX_BACKOFF_MILLISECONDS);
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+
+    /**
+     * Waits before a retry
+     * @param delay The delay, in milliseconds
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    private static void sleep(final long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting to retry");
+        }
+    }
+
+    /**
+     * Counts the retries of a call, attached to a request as a tag by whoever wants to know
+     */
+    static final class Counter {
+
+        /**
+         * The number of retries so far
+         */
+        private final AtomicInteger mRetries = new AtomicInteger();
+
+        /**
+         * Gets the number of retries so far
+         * @return The retry count
+         */
+        int get() {
+            return mRetries.get();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Authenticator;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Builds the one http client every request of the application goes through, so metadata calls, thumbnails
+ * and uploads share a pool of kept-alive connections and multiplex over HTTP/2 where the server allows it
+ */
+final class SharedHttpClient {
+
+    /**
+     * The number of idle connections kept in the pool
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    /**
+     * How long an idle connection is kept in the pool
+     */
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    /**
+     * The number of requests that may run at once
+     */
+    private static final int MAX_REQUESTS = 64;
+
+    /**
+     * The number of requests that may run at once against a single host
+     */
+    private static final int MAX_REQUESTS_PER_HOST = 16;
+
+    /**
+     * The number of requests that may start out running at once against a single host, adapted from there
+     * as the host throttles or keeps up
+     */
+    private static final int INITIAL_REQUESTS_PER_HOST = 6;
+
+    /**
+     * How long to wait for a connection to be established
+     */
+    private static final long CONNECT_TIMEOUT_SECONDS = 15;
+
+    /**
+     * How long to wait for bytes to arrive or be sent
+     */
+    private static final long READ_WRITE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * How often to ping HTTP/2 connections so dead ones are noticed
+     */
+    private static final long PING_INTERVAL_SECONDS = 30;
+
+    /**
+     * Default constructor
+     */
+    private SharedHttpClient() {
+    }
+
+    /**
+     * Creates the shared client
+     * @param stats Where response sizes are recorded
+     * @param metrics Where the metrics of each request are recorded
+     * @param authenticator Renews the authorization of requests the service rejects with a 401
+     * @return The client
+     */
+    static OkHttpClient create(final TransferStats stats,
+                               final MetricsRegistry metrics,
+                               final Authenticator authenticator) {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(READ_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(READ_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .pingInterval(PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+                .authenticator(authenticator)
+                .addInterceptor(new MetricsInterceptor(metrics))
+                .addInterceptor(new RetryInterceptor(INITIAL_REQUESTS_PER_HOST, MAX_REQUESTS_PER_HOST))
+                .addInterceptor(new CompressionInterceptor(stats))
+                .build();
+    }
+}
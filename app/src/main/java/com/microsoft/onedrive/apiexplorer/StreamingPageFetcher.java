@@ -0,0 +1,166 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.core.GraphErrorCodes;
+import com.microsoft.graph.extensions.DriveItemDeltaCollectionRequestBuilder;
+import com.microsoft.graph.extensions.IDriveItemDeltaCollectionRequest;
+import com.microsoft.graph.extensions.IGraphServiceClient;
+import com.microsoft.graph.http.IHttpRequest;
+import com.microsoft.graph.options.HeaderOption;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Fetches pages of a delta through the shared http client and reads them with {@link CollectionPageReader}.
+ *
+ * The Graph client still builds and authenticates each request, only the response handling is replaced,
+ * as the default one reads the whole body into a string and then into a json tree before binding it.
+ */
+class StreamingPageFetcher {
+
+    /**
+     * The member of an error response holding the error
+     */
+    private static final String ERROR = "error";
+
+    /**
+     * The member of an error holding its code
+     */
+    private static final String CODE = "code";
+
+    /**
+     * The member of an error holding the more specific error
+     */
+    private static final String INNER_ERROR = "innererror";
+
+    /**
+     * The client that builds and authenticates requests
+     */
+    private final IGraphServiceClient mClient;
+
+    /**
+     * The http client the requests are sent with
+     */
+    private final OkHttpClient mHttpClient;
+
+    /**
+     * If the json of each item is kept
+     */
+    private final boolean mKeepRaw;
+
+    /**
+     * Default constructor
+     * @param client The client that builds and authenticates requests
+     * @param httpClient The http client the requests are sent with
+     * @param keepRaw If the json of each item is kept, only needed to show or store it
+     */
+    StreamingPageFetcher(final IGraphServiceClient client, final OkHttpClient httpClient, final boolean keepRaw) {
+        mClient = client;
+        mHttpClient = httpClient;
+        mKeepRaw = keepRaw;
+    }
+
+    /**
+     * Builds the request for a next page or saved delta link
+     * @param link The link
+     * @return The request
+     */
+    IDriveItemDeltaCollectionRequest buildLinkRequest(final String link) {
+        return new DriveItemDeltaCollectionRequestBuilder(link, mClient, null).buildRequest();
+    }
+
+    /**
+     * Fetches and reads a page, blocking the calling thread
+     * @param request The request for the page
+     * @return The page
+     * @throws ClientException If the page could not be fetched or the service returned an error
+     */
+    DriveItemPage fetch(final IDriveItemDeltaCollectionRequest request) throws ClientException {
+        // The generated collection requests are http requests, their interfaces just do not say so
+        final IHttpRequest httpRequest = (IHttpRequest) request;
+        mClient.getAuthenticationProvider().authenticateRequest(httpRequest);
+        final Request.Builder builder = new Request.Builder().url(httpRequest.getRequestUrl());
+        for (final HeaderOption header : httpRequest.getHeaders()) {
+            builder.header(header.getName(), header.getValue().toString());
+        }
+
+        Response response = null;
+        try {
+            response = mHttpClient.newCall(builder.build()).execute();
+            if (!response.isSuccessful()) {
+                final String body = response.body().string();
+                throw new ClientException("Error " + response.code() + " fetching page: " + body,
+                                          null,
+                                          getErrorCode(body));
+            }
+            final DriveItemPage page = new DriveItemPage(mKeepRaw);
+            final JsonReader reader = new JsonReader(response.body().charStream());
+            CollectionPageReader.read(reader, mClient.getSerializer(), mKeepRaw, page);
+            return page;
+        } catch (final IOException | JsonParseException | IllegalStateException e) {
+            throw new ClientException("Unable to fetch page", e, GraphErrorCodes.GeneralException);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Finds the most specific known error code in an error response
+     * @param body The error response
+     * @return The error code, or {@link GraphErrorCodes#GeneralException} if none is known
+     */
+    private static GraphErrorCodes getErrorCode(final String body) {
+        GraphErrorCodes result = GraphErrorCodes.GeneralException;
+        try {
+            JsonElement error = new JsonParser().parse(body).getAsJsonObject().get(ERROR);
+            while (error != null && error.isJsonObject()) {
+                final JsonObject object = error.getAsJsonObject();
+                final JsonElement code = object.get(CODE);
+                if (code != null && code.isJsonPrimitive()) {
+                    for (final GraphErrorCodes known : GraphErrorCodes.values()) {
+                        if (known.name().equalsIgnoreCase(code.getAsString())) {
+                            result = known;
+                        }
+                    }
+                }
+                error = object.get(INNER_ERROR);
+            }
+        } catch (final JsonParseException | IllegalStateException ignored) {
+            // Not a json error response, the status code in the message is all there is
+        }
+        return result;
+    }
+}
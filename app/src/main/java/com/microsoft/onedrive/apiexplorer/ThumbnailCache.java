@@ -0,0 +1,197 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A thumbnail cache bounded by the number of bytes held by its bitmaps
+ */
+class ThumbnailCache extends LruCache<String, Bitmap> {
+
+    /**
+     * The number of bytes in a megabyte
+     */
+    private static final int BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    /**
+     * The fraction of the application memory class given to thumbnails, as a divisor
+     */
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    /**
+     * The fraction of the budget kept when the system asks for a partial trim, as a divisor
+     */
+    private static final int PARTIAL_TRIM_DIVISOR = 2;
+
+    /**
+     * The fraction of the cache budget given to the pool of reusable bitmaps, as a divisor
+     */
+    private static final int POOL_DIVISOR = 8;
+
+    /**
+     * Bitmaps evicted from this cache that can be decoded into again
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * The number of views each bitmap is currently displayed in, guarded by this cache
+     */
+    private final Map<Bitmap, Integer> mDisplayed = new IdentityHashMap<>();
+
+    /**
+     * Default constructor
+     * @param maxBytes The maximum number of bytes of bitmaps to hold
+     */
+    ThumbnailCache(final int maxBytes) {
+        super(maxBytes);
+        mPool = new BitmapPool(maxBytes / POOL_DIVISOR);
+    }
+
+    /**
+     * Creates a cache whose budget is derived from the memory class of the device
+     * @param context The context used to look up the memory class
+     * @return The new cache
+     */
+    static ThumbnailCache create(final Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int memoryClassBytes = activityManager.getMemoryClass() * BYTES_PER_MEGABYTE;
+        return new ThumbnailCache(memoryClassBytes / MEMORY_CLASS_DIVISOR);
+    }
+
+    @Override
+    protected int sizeOf(final String key, final Bitmap value) {
+        return value.getByteCount();
+    }
+
+    @Override
+    protected void entryRemoved(final boolean evicted,
+                                final String key,
+                                final Bitmap oldValue,
+                                final Bitmap newValue) {
+        synchronized (mDisplayed) {
+            if (oldValue != newValue && !mDisplayed.containsKey(oldValue)) {
+                mPool.put(oldValue);
+            }
+        }
+    }
+
+    /**
+     * Gets the pool of bitmaps that can be decoded into again
+     * @return The bitmap pool
+     */
+    BitmapPool getPool() {
+        return mPool;
+    }
+
+    /**
+     * Records that a bitmap is now shown in a view, so it is never handed out for reuse
+     * @param bitmap The bitmap
+     */
+    void retain(final Bitmap bitmap) {
+        synchronized (mDisplayed) {
+            final Integer count = mDisplayed.get(bitmap);
+            if (count == null) {
+                mDisplayed.put(bitmap, 1);
+            } else {
+                mDisplayed.put(bitmap, count + 1);
+            }
+        }
+    }
+
+    /**
+     * Looks a bitmap up and records that it is shown in a view, in one step so it cannot be evicted
+     * into the pool in between
+     * @param key The key of the bitmap
+     * @return The bitmap, or null if it is no longer cached
+     */
+    Bitmap retainIfCached(final String key) {
+        synchronized (mDisplayed) {
+            final Bitmap bitmap = get(key);
+            if (bitmap != null) {
+                retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Records that a bitmap is no longer shown in a view
+     * @param bitmap The bitmap
+     */
+    void release(final Bitmap bitmap) {
+        synchronized (mDisplayed) {
+            final Integer count = mDisplayed.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mDisplayed.put(bitmap, count - 1);
+            } else {
+                mDisplayed.remove(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Releases memory in response to a system trim request. The pool is cleared last, since every
+     * evicted bitmap that is not on screen lands in it.
+     * @param level The trim level from {@link ComponentCallbacks2}
+     */
+    void onTrimMemory(final int level) {
+        boolean trimmed = true;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                   || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(maxSize() / PARTIAL_TRIM_DIVISOR);
+        } else {
+            trimmed = false;
+        }
+        if (trimmed || level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mPool.clear();
+        }
+    }
+
+    /**
+     * Gets a summary of how this cache is performing
+     * @return The hit, miss and eviction statistics of this cache
+     */
+    synchronized String getStatistics() {
+        return String.format(Locale.ROOT,
+                             "ThumbnailCache[size=%d, maxSize=%d, hits=%d, misses=%d, evictions=%d]",
+                             size(),
+                             maxSize(),
+                             hitCount(),
+                             missCount(),
+                             evictionCount());
+    }
+}
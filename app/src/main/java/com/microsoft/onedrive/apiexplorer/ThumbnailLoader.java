@@ -0,0 +1,579 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Loads thumbnails for display items on a dedicated, bounded thread pool.
+ *
+ * Each request first looks in the disk cache on a single disk thread, promoting
+ * hits into the memory cache, and only falls through to the network pool on a miss.
+ */
+class ThumbnailLoader {
+
+    /**
+     * The tag of the lines logged by the loader
+     */
+    private static final String TAG = ThumbnailLoader.class.getSimpleName();
+
+    /**
+     * One download in this many is logged, a folder of photos starts hundreds of them
+     */
+    private static final int DOWNLOAD_LOG_SAMPLE_RATE = 20;
+
+    /**
+     * Picks the downloads that are logged
+     */
+    private static final AsyncLogger.Sampler DOWNLOAD_LOG_SAMPLER = new AsyncLogger.Sampler(DOWNLOAD_LOG_SAMPLE_RATE);
+
+    /**
+     * The minimum number of threads used to download thumbnails
+     */
+    private static final int MIN_THREAD_COUNT = 2;
+
+    /**
+     * The maximum number of threads used to download thumbnails
+     */
+    private static final int MAX_THREAD_COUNT = 4;
+
+    /**
+     * How long an idle download thread is kept around
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The initial capacity of the pending request queue
+     */
+    private static final int INITIAL_QUEUE_CAPACITY = 64;
+
+    /**
+     * The name prefix for download threads
+     */
+    private static final String THREAD_NAME_PREFIX = "ThumbnailLoader #";
+
+    /**
+     * The name prefix for disk cache threads
+     */
+    private static final String DISK_THREAD_NAME_PREFIX = "ThumbnailDiskCache #";
+
+    /**
+     * The size of the buffer used to read thumbnails
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The priority for thumbnails of rows that are on screen
+     */
+    static final int PRIORITY_VISIBLE = 1;
+
+    /**
+     * The priority for thumbnails of rows just outside the screen
+     */
+    static final int PRIORITY_PREFETCH = 0;
+
+    /**
+     * Receives thumbnails once they have been loaded
+     */
+    interface Listener {
+        /**
+         * Called on the main thread when a thumbnail has been loaded
+         * @param itemId The id of the item the thumbnail belongs to
+         * @param bitmap The thumbnail
+         */
+        void onThumbnailLoaded(final String itemId, final Bitmap bitmap);
+    }
+
+    /**
+     * The cache loaded thumbnails are placed into
+     */
+    private final LruCache<String, Bitmap> mImageCache;
+
+    /**
+     * The disk tier below the memory cache
+     */
+    private final DiskThumbnailCache mDiskCache;
+
+    /**
+     * Decodes thumbnails down to the size they are displayed at
+     */
+    private final BitmapDecoder mDecoder;
+
+    /**
+     * The shared http client thumbnails are downloaded with
+     */
+    private final OkHttpClient mHttpClient;
+
+    /**
+     * The size thumbnails are displayed at, in pixels
+     */
+    private final int mTargetSize;
+
+    /**
+     * The executor that looks requests up in the disk cache
+     */
+    private final ThreadPoolExecutor mDiskExecutor;
+
+    /**
+     * The executor that runs the download requests
+     */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Used to deliver results on the main thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Orders requests so that the most recent one is run first
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Requests that are queued or running, keyed by item id, only touched on the main thread
+     */
+    private final Map<String, Request> mInFlight = new HashMap<>();
+
+    /**
+     * Where download progress and failures are logged
+     */
+    private final AsyncLogger mLogger;
+
+    /**
+     * Default constructor
+     * @param imageCache The cache loaded thumbnails are placed into
+     * @param diskCache The disk tier below the memory cache
+     * @param httpClient The shared http client thumbnails are downloaded with
+     * @param decoder Decodes thumbnails down to the size they are displayed at
+     * @param targetSize The size thumbnails are displayed at, in pixels
+     * @param logger Where download progress and failures are logged
+     */
+    ThumbnailLoader(final LruCache<String, Bitmap> imageCache,
+                    final DiskThumbnailCache diskCache,
+                    final OkHttpClient httpClient,
+                    final BitmapDecoder decoder,
+                    final int targetSize,
+                    final AsyncLogger logger) {
+        mLogger = logger;
+        mImageCache = imageCache;
+        mDiskCache = diskCache;
+        mHttpClient = httpClient;
+        mDecoder = decoder;
+        mTargetSize = targetSize;
+
+        final int threadCount = Math.max(MIN_THREAD_COUNT,
+                                         Math.min(MAX_THREAD_COUNT, Runtime.getRuntime().availableProcessors()));
+        mDiskExecutor = createExecutor(1, DISK_THREAD_NAME_PREFIX);
+        mExecutor = createExecutor(threadCount, THREAD_NAME_PREFIX);
+    }
+
+    /**
+     * Creates an executor that runs the newest requests first
+     * @param threadCount The number of threads
+     * @param namePrefix The name prefix for the threads
+     * @return The executor
+     */
+    private static ThreadPoolExecutor createExecutor(final int threadCount, final String namePrefix) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threadCount,
+                threadCount,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(INITIAL_QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(runnable, namePrefix + mCount.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts loading the thumbnail for an item, must be called from the main thread.
+     *
+     * Higher priority requests run first, and among requests of the same priority the newest runs first.
+     * @param item The item to load the thumbnail of
+     * @param priority The priority of the request
+     * @param listener The listener to notify once the thumbnail is available
+     */
+    void load(final DisplayItem item, final int priority, final Listener listener) {
+        if (!item.hasThumbnail() || mImageCache.get(item.getThumbnailKey()) != null) {
+            return;
+        }
+
+        final Request existing = mInFlight.get(item.getId());
+        if (existing != null && existing.mThumbnailKey.equals(item.getThumbnailKey())) {
+            existing.addListener(listener);
+            final ThreadPoolExecutor executor = existing.getExecutor();
+            if (executor.remove(existing)) {
+                existing.promote(priority, mSequence.incrementAndGet());
+                executor.execute(existing);
+            }
+            return;
+        }
+        if (existing != null) {
+            cancelRequest(item.getId());
+        }
+
+        final Request request = new Request(item, priority, mSequence.incrementAndGet());
+        request.addListener(listener);
+        mInFlight.put(item.getId(), request);
+        mDiskExecutor.execute(request);
+    }
+
+    /**
+     * Stops notifying a listener about the thumbnail for an item, must be called from the main thread.
+     *
+     * The load itself is only stopped once no other listener is waiting for it.
+     * @param itemId The id of the item
+     * @param listener The listener given to {@link #load(DisplayItem, int, Listener)}
+     */
+    void cancel(final String itemId, final Listener listener) {
+        final Request request = mInFlight.get(itemId);
+        if (request != null && request.removeListener(listener)) {
+            cancelRequest(itemId);
+        }
+    }
+
+    /**
+     * Stops loading the thumbnail for an item, whoever is waiting for it
+     * @param itemId The id of the item
+     */
+    private void cancelRequest(final String itemId) {
+        final Request request = mInFlight.remove(itemId);
+        if (request != null) {
+            request.cancel();
+            request.getExecutor().remove(request);
+        }
+    }
+
+    /**
+     * Downloads the compressed bytes of the thumbnail for an item.
+     *
+     * The pre-signed url from the thumbnails expansion is used directly, which skips the
+     * authenticated Graph call and its redirect. The download goes through the shared http
+     * client, so it reuses the pooled connections of every other request to the same host.
+     * @param request The request being run
+     * @return The thumbnail bytes, or null if they could not be retrieved
+     */
+    private byte[] download(final Request request) {
+        if (DOWNLOAD_LOG_SAMPLER.sample()) {
+            mLogger.log(Log.DEBUG, TAG, "Getting thumbnail for %s", request.mItemId);
+        }
+        final Call call = mHttpClient.newCall(new okhttp3.Request.Builder().url(request.mUrl).build());
+        request.setCall(call);
+        Response response = null;
+        try {
+            response = call.execute();
+            if (!response.isSuccessful()) {
+                mLogger.log(Log.ERROR, TAG, "Thumbnail download failure %d", response.code());
+                return null;
+            }
+            final InputStream in = response.body().byteStream();
+            final ByteArrayOutputStream out =
+                    new ByteArrayOutputStream((int) Math.max(response.body().contentLength(), 0));
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (request.isCancelled()) {
+                    call.cancel();
+                    return null;
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (final Throwable e) {
+            if (!request.isCancelled()) {
+                mLogger.log(Log.ERROR, TAG, "Thumbnail download failure", e);
+            }
+            return null;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Decodes thumbnail bytes and places the result in the memory cache
+     * @param request The request being run
+     * @param bytes The compressed thumbnail bytes
+     * @return The thumbnail, or null if it could not be decoded
+     */
+    private Bitmap decode(final Request request, final byte[] bytes) {
+        final Bitmap bitmap = mDecoder.decode(bytes, mTargetSize, mTargetSize);
+        if (bitmap != null && !request.isCancelled()) {
+            mImageCache.put(request.mThumbnailKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Hands a finished request back to its listeners on the main thread
+     * @param request The finished request
+     * @param bitmap The thumbnail, or null if it could not be retrieved
+     */
+    private void deliver(final Request request, final Bitmap bitmap) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mInFlight.get(request.mItemId) == request) {
+                    mInFlight.remove(request.mItemId);
+                }
+                if (bitmap == null || request.isCancelled()) {
+                    return;
+                }
+                for (final Listener listener : request.getListeners()) {
+                    listener.onThumbnailLoaded(request.mItemId, bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * A single thumbnail request, newer requests are run before older ones
+     */
+    private final class Request implements Runnable, Comparable<Request> {
+
+        /**
+         * The id of the item whose thumbnail is requested
+         */
+        private final String mItemId;
+
+        /**
+         * The content tag of the item whose thumbnail is requested
+         */
+        private final String mCTag;
+
+        /**
+         * The key of the thumbnail in the memory cache
+         */
+        private final String mThumbnailKey;
+
+        /**
+         * The pre-signed url of the thumbnail
+         */
+        private final String mUrl;
+
+        /**
+         * The listeners waiting on this request, guarded by this request
+         */
+        private final List<Listener> mListeners = new ArrayList<>();
+
+        /**
+         * The priority of this request, higher values run first
+         */
+        private volatile int mPriority;
+
+        /**
+         * The ordering of this request within its priority, higher values run first
+         */
+        private volatile long mOrder;
+
+        /**
+         * If this request has been cancelled
+         */
+        private volatile boolean mCancelled;
+
+        /**
+         * The download of this request, if it has started
+         */
+        private volatile Call mCall;
+
+        /**
+         * If the disk cache has already been checked for this request
+         */
+        private volatile boolean mCheckedDisk;
+
+        /**
+         * Default constructor
+         * @param item The item whose thumbnail is requested
+         * @param priority The priority of this request
+         * @param order The ordering of this request within its priority
+         */
+        Request(final DisplayItem item, final int priority, final long order) {
+            mItemId = item.getId();
+            mCTag = item.getCTag();
+            mThumbnailKey = item.getThumbnailKey();
+            mUrl = item.getThumbnailUrl();
+            mPriority = priority;
+            mOrder = order;
+        }
+
+        /**
+         * Gets the executor this request is currently queued on
+         * @return The executor
+         */
+        ThreadPoolExecutor getExecutor() {
+            if (mCheckedDisk) {
+                return mExecutor;
+            }
+            return mDiskExecutor;
+        }
+
+        /**
+         * Adds a listener to this request
+         * @param listener The listener
+         */
+        synchronized void addListener(final Listener listener) {
+            if (!mListeners.contains(listener)) {
+                mListeners.add(listener);
+            }
+        }
+
+        /**
+         * Removes a listener from this request
+         * @param listener The listener
+         * @return If no listeners are left
+         */
+        synchronized boolean removeListener(final Listener listener) {
+            mListeners.remove(listener);
+            return mListeners.isEmpty();
+        }
+
+        /**
+         * Gets a snapshot of the listeners
+         * @return The listeners
+         */
+        synchronized List<Listener> getListeners() {
+            return new ArrayList<>(mListeners);
+        }
+
+        /**
+         * Moves this request within the queue, it must not be queued while this is called
+         * @param priority The new priority for this request
+         * @param order The new ordering for this request within its priority
+         */
+        void promote(final int priority, final long order) {
+            mPriority = priority;
+            mOrder = order;
+        }
+
+        /**
+         * Cancels this request, cancelling the download if it has started.
+         *
+         * The download is cancelled rather than its thread interrupted, since by the time the interrupt
+         * landed the pool thread could be running another request.
+         */
+        void cancel() {
+            mCancelled = true;
+            final Call call = mCall;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        /**
+         * Records the download of this request, so it can be cancelled
+         * @param call The download
+         */
+        void setCall(final Call call) {
+            mCall = call;
+            if (mCancelled) {
+                // Cancelled before the download was recorded
+                call.cancel();
+            }
+        }
+
+        /**
+         * If this request has been cancelled
+         * @return If this request has been cancelled
+         */
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            Bitmap bitmap = null;
+            boolean requeue = false;
+            try {
+                if (!mCheckedDisk) {
+                    final byte[] cached = mDiskCache.get(mItemId, mCTag);
+                    if (cached != null) {
+                        bitmap = decode(this, cached);
+                    }
+                    requeue = bitmap == null && !mCancelled;
+                    return;
+                }
+
+                final byte[] downloaded = download(this);
+                if (downloaded != null && !mCancelled) {
+                    mDiskCache.put(mItemId, mCTag, downloaded);
+                    bitmap = decode(this, downloaded);
+                }
+            } finally {
+                if (requeue) {
+                    mCheckedDisk = true;
+                    mExecutor.execute(this);
+                } else {
+                    deliver(this, bitmap);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(final Request another) {
+            if (mPriority != another.mPriority) {
+                return another.mPriority - mPriority;
+            }
+            if (mOrder == another.mOrder) {
+                return 0;
+            }
+            if (mOrder > another.mOrder) {
+                return -1;
+            }
+            return 1;
+        }
+    }
+}
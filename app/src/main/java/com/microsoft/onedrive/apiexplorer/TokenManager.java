@@ -0,0 +1,414 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.microsoft.graph.authentication.IAuthenticationAdapter;
+import com.microsoft.graph.concurrency.ICallback;
+import com.microsoft.graph.core.ClientException;
+import com.microsoft.graph.http.IHttpRequest;
+import com.microsoft.graph.options.HeaderOption;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * Keeps the authorization header of the signed in account and renews it on a background thread
+ * ahead of expiry, so requests add a cached header instead of refreshing the token inline.
+ *
+ * Concurrent callers that find no usable header wait on the same refresh rather than starting their own.
+ * The access token is not persisted by the account library, so the first token seen in a process has
+ * just been issued and its age can be tracked from the moment it is first seen.
+ *
+ * It is also the authenticator of the shared http client, so a request rejected with a 401 drops the
+ * cached header and is sent once more with a freshly refreshed one. Signing out or dropping the header
+ * starts a new generation, and a refresh that began in an older one never updates the cache.
+ */
+class TokenManager implements IAuthenticationAdapter, Authenticator {
+
+    /**
+     * The log tag
+     */
+    private static final String TAG = "TokenManager";
+
+    /**
+     * The header carrying the access token
+     */
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+
+    /**
+     * How long an access token is trusted after it is first seen, a little under the one hour it is issued for
+     */
+    private static final long TOKEN_LIFETIME_MS = TimeUnit.MINUTES.toMillis(55);
+
+    /**
+     * How long before the trusted lifetime ends to start asking for a new token
+     */
+    private static final long REFRESH_AHEAD_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * How often to ask again while the account library keeps returning the same token
+     */
+    private static final long REFRESH_RETRY_MS = TimeUnit.SECONDS.toMillis(15);
+
+    /**
+     * How long an unchanged token stays trusted after the account library has handed it out again
+     */
+    private static final long REVALIDATED_LIFETIME_MS = 2 * REFRESH_RETRY_MS;
+
+    /**
+     * How long to wait for a silent sign in to complete
+     */
+    private static final long LOGIN_SILENT_TIMEOUT_SECONDS = 30;
+
+    /**
+     * The adapter that holds the account and actually renews its token
+     */
+    private final IAuthenticationAdapter mAdapter;
+
+    /**
+     * The application, used to build the request the adapter authenticates for us
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The logger
+     */
+    private final AsyncLogger mLogger;
+
+    /**
+     * Runs refreshes, one at a time
+     */
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * The cached authorization header value, or null if there is none
+     */
+    private String mHeader;
+
+    /**
+     * The elapsed realtime after which the cached header is no longer used
+     */
+    private long mExpiresAt;
+
+    /**
+     * The refresh in progress, shared by everyone that needs it
+     */
+    private Future<String> mRefresh;
+
+    /**
+     * The generation {@link #mRefresh} was started in
+     */
+    private int mRefreshGeneration;
+
+    /**
+     * Incremented whenever the cached header is dropped, so refreshes started before are ignored
+     */
+    private int mGeneration;
+
+    /**
+     * The next scheduled refresh
+     */
+    private Future<?> mScheduledRefresh;
+
+    /**
+     * Default constructor
+     * @param adapter The adapter that holds the account and actually renews its token
+     * @param application The application, used to build the request the adapter authenticates for us
+     * @param logger The logger
+     */
+    TokenManager(final IAuthenticationAdapter adapter, final BaseApplication application, final AsyncLogger logger) {
+        mAdapter = adapter;
+        mApplication = application;
+        mLogger = logger;
+    }
+
+    /**
+     * Adds the cached authorization header, waiting on the shared refresh only when there is no usable header
+     * @param request The request to authenticate
+     */
+    @Override
+    public void authenticateRequest(final IHttpRequest request) {
+        if (getAuthorization(request) != null) {
+            return;
+        }
+
+        String header = getCachedHeader();
+        if (header == null) {
+            header = awaitRefresh();
+        }
+        if (header == null) {
+            // Let the adapter report why there is no token
+            mAdapter.authenticateRequest(request);
+            return;
+        }
+        request.addHeader(AUTHORIZATION_HEADER, header);
+    }
+
+    /**
+     * Signs in interactively, then fetches the first token in the background
+     * @param activity The activity to sign in from
+     * @param callback The callback when sign in has completed
+     */
+    @Override
+    public void login(final Activity activity, final ICallback<Void> callback) {
+        mAdapter.login(activity, primeOnSuccess(callback));
+    }
+
+    /**
+     * Signs in silently, then fetches the first token in the background
+     * @param callback The callback when sign in has completed
+     */
+    @Override
+    public void loginSilent(final ICallback<Void> callback) {
+        mAdapter.loginSilent(primeOnSuccess(callback));
+    }
+
+    /**
+     * Forgets the cached token and signs out
+     * @param callback The callback when sign out has completed
+     */
+    @Override
+    public void logout(final ICallback<Void> callback) {
+        synchronized (this) {
+            mGeneration++;
+            mHeader = null;
+            if (mScheduledRefresh != null) {
+                mScheduledRefresh.cancel(false);
+                mScheduledRefresh = null;
+            }
+        }
+        mAdapter.logout(callback);
+    }
+
+    /**
+     * Drops the cached header the service rejected and retries the request once with a refreshed one
+     * @param route The route of the rejected request
+     * @param response The 401 response
+     * @return The request to send again, or null to give up
+     * @throws IOException Never, the response is handed back instead
+     */
+    @Override
+    public Request authenticate(final Route route, final Response response) throws IOException {
+        final String rejected = response.request().header(AUTHORIZATION_HEADER);
+        if (rejected == null || response.priorResponse() != null) {
+            // Not ours to authenticate, or already retried with a refreshed header
+            return null;
+        }
+
+        synchronized (this) {
+            if (rejected.equals(mHeader)) {
+                mGeneration++;
+                mHeader = null;
+            }
+        }
+        final String header = awaitRefresh();
+        if (header == null || header.equals(rejected)) {
+            mLogger.log(Log.WARN, TAG, "Access token rejected and no new one could be had");
+            return null;
+        }
+        return response.request().newBuilder().header(AUTHORIZATION_HEADER, header).build();
+    }
+
+    /**
+     * Gets the cached header if it is still trusted
+     * @return The header value, or null if there is no usable header
+     */
+    private synchronized String getCachedHeader() {
+        if (mHeader != null && SystemClock.elapsedRealtime() < mExpiresAt) {
+            return mHeader;
+        }
+        return null;
+    }
+
+    /**
+     * Starts a refresh unless one is already running
+     * @return The refresh in progress
+     */
+    private synchronized Future<String> refreshAsync() {
+        if (mRefresh == null || mRefresh.isDone() || mRefreshGeneration != mGeneration) {
+            final int generation = mGeneration;
+            mRefreshGeneration = generation;
+            mRefresh = mExecutor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return refresh(generation);
+                }
+            });
+        }
+        return mRefresh;
+    }
+
+    /**
+     * Waits for the shared refresh
+     * @return The header value, or null if no token could be had
+     */
+    private String awaitRefresh() {
+        try {
+            return refreshAsync().get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            mLogger.log(Log.ERROR, TAG, "Token refresh failed", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Asks the adapter for its current token, giving it the chance to renew one about to expire,
+     * then updates the cache and schedules the next refresh. Runs on the refresh thread.
+     * @param generation The generation the refresh was started in
+     * @return The header value, or null if no token could be had or the generation has since ended
+     */
+    private String refresh(final int generation) {
+        loginSilentBlocking();
+        final IHttpRequest probe = (IHttpRequest) mApplication.getGraphServiceClient().getMe().buildRequest();
+        try {
+            mAdapter.authenticateRequest(probe);
+        } catch (final RuntimeException e) {
+            mLogger.log(Log.ERROR, TAG, "Unable to get an access token", e);
+        }
+        final String header = getAuthorization(probe);
+
+        synchronized (this) {
+            if (generation != mGeneration) {
+                mLogger.log(Log.DEBUG, TAG, "Ignoring a token from before the header was dropped");
+                return null;
+            }
+            final long now = SystemClock.elapsedRealtime();
+            if (header == null) {
+                mHeader = null;
+                return null;
+            }
+            if (header.equals(mHeader)) {
+                mExpiresAt = Math.max(mExpiresAt, now + REVALIDATED_LIFETIME_MS);
+            } else {
+                mLogger.log(Log.DEBUG, TAG, "New access token");
+                mHeader = header;
+                mExpiresAt = now + TOKEN_LIFETIME_MS;
+            }
+            scheduleRefresh(Math.max(mExpiresAt - REFRESH_AHEAD_MS - now, REFRESH_RETRY_MS));
+            return header;
+        }
+    }
+
+    /**
+     * Schedules the next background refresh, replacing any already scheduled
+     * @param delayMs The number of milliseconds to wait
+     */
+    private synchronized void scheduleRefresh(final long delayMs) {
+        if (mScheduledRefresh != null) {
+            mScheduledRefresh.cancel(false);
+        }
+        mScheduledRefresh = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refreshAsync();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Signs in silently and waits for it, which renews the token if it is close to expiry
+     */
+    private void loginSilentBlocking() {
+        final CountDownLatch done = new CountDownLatch(1);
+        mAdapter.loginSilent(new ICallback<Void>() {
+            @Override
+            public void success(final Void result) {
+                done.countDown();
+            }
+
+            @Override
+            public void failure(final ClientException ex) {
+                mLogger.log(Log.ERROR, TAG, "Silent sign in failed", ex);
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(LOGIN_SILENT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                mLogger.log(Log.ERROR, TAG, "Silent sign in timed out");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wraps a sign in callback to start fetching a token as soon as sign in succeeds
+     * @param callback The callback to wrap
+     * @return The wrapping callback
+     */
+    private ICallback<Void> primeOnSuccess(final ICallback<Void> callback) {
+        return new ICallback<Void>() {
+            @Override
+            public void success(final Void result) {
+                refreshAsync();
+                callback.success(result);
+            }
+
+            @Override
+            public void failure(final ClientException ex) {
+                callback.failure(ex);
+            }
+        };
+    }
+
+    /**
+     * Finds the authorization header of a request
+     * @param request The request
+     * @return The header value, or null if the request has none
+     */
+    private static String getAuthorization(final IHttpRequest request) {
+        for (final HeaderOption option : request.getHeaders()) {
+            if (AUTHORIZATION_HEADER.equalsIgnoreCase(option.getName())) {
+                return option.getValue().toString();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,114 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Counts the bytes responses take on the wire against the bytes they decode to
+ */
+class TransferStats {
+
+    /**
+     * The name logged for responses sent without a content encoding
+     */
+    private static final String IDENTITY = "identity";
+
+    /**
+     * Where each response is logged
+     */
+    private final AsyncLogger mLogger;
+
+    /**
+     * The number of responses counted
+     */
+    private final AtomicLong mResponses = new AtomicLong();
+
+    /**
+     * The bytes received on the wire
+     */
+    private final AtomicLong mWireBytes = new AtomicLong();
+
+    /**
+     * The bytes the responses decoded to
+     */
+    private final AtomicLong mDecodedBytes = new AtomicLong();
+
+    /**
+     * Default constructor
+     * @param logger Where each response is logged
+     */
+    TransferStats(final AsyncLogger logger) {
+        mLogger = logger;
+    }
+
+    /**
+     * Records a response once its body has been read or closed
+     * @param url The url of the request
+     * @param encoding The content encoding of the response, or null if there was none
+     * @param wireBytes The bytes received on the wire
+     * @param decodedBytes The bytes the body decoded to
+     */
+    void record(final HttpUrl url, final String encoding, final long wireBytes, final long decodedBytes) {
+        mResponses.incrementAndGet();
+        mWireBytes.addAndGet(wireBytes);
+        mDecodedBytes.addAndGet(decodedBytes);
+
+        String name = encoding;
+        if (name == null) {
+            name = IDENTITY;
+        }
+        if (mLogger.isLoggable(Log.DEBUG)) {
+            mLogger.log(Log.DEBUG, getClass().getSimpleName(), "%s %s %d bytes on the wire, %d decoded",
+                        url.encodedPath(), name, wireBytes, decodedBytes);
+        }
+    }
+
+    /**
+     * Gets the number of responses counted
+     * @return The number of responses
+     */
+    long getResponses() {
+        return mResponses.get();
+    }
+
+    /**
+     * Gets the bytes received on the wire
+     * @return The wire bytes
+     */
+    long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    /**
+     * Gets the bytes the responses decoded to
+     * @return The decoded bytes
+     */
+    long getDecodedBytes() {
+        return mDecodedBytes.get();
+    }
+}
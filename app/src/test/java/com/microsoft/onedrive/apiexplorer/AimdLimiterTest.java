@@ -0,0 +1,185 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AimdLimiter}
+ */
+public class AimdLimiterTest {
+
+    /**
+     * The starting limit
+     */
+    private static final int INITIAL_LIMIT = 8;
+
+    /**
+     * The lowest the limit may go
+     */
+    private static final int MIN_LIMIT = 1;
+
+    /**
+     * The highest the limit may go
+     */
+    private static final int MAX_LIMIT = 16;
+
+    /**
+     * Enough healthy responses to grow the limit to the maximum
+     */
+    private static final int MANY_RESPONSES = 1000;
+
+    /**
+     * How long to wait for a blocked thread to show it stays blocked, in milliseconds
+     */
+    private static final long BLOCKED_WAIT_MS = 200L;
+
+    /**
+     * How long to wait for a released thread to finish, in milliseconds
+     */
+    private static final long RELEASED_WAIT_MS = 5000L;
+
+    /**
+     * A throttled response halves the limit
+     * @throws InterruptedException If interrupted while acquiring
+     */
+    @Test
+    public void throttledResponseHalvesTheLimit() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+
+        limiter.release(limiter.acquire(), true);
+
+        assertEquals(INITIAL_LIMIT / 2, limiter.getLimit());
+    }
+
+    /**
+     * Requests that started before a decrease do not halve the limit again, later ones do
+     * @throws InterruptedException If interrupted while acquiring
+     */
+    @Test
+    public void halvesOncePerWindow() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+        final long first = limiter.acquire();
+        final long second = limiter.acquire();
+
+        limiter.release(first, true);
+        limiter.release(second, true);
+
+        assertEquals(INITIAL_LIMIT / 2, limiter.getLimit());
+
+        limiter.release(limiter.acquire(), true);
+
+        assertEquals(INITIAL_LIMIT / 2 / 2, limiter.getLimit());
+    }
+
+    /**
+     * The limit never drops below the minimum
+     * @throws InterruptedException If interrupted while acquiring
+     */
+    @Test
+    public void staysAboveTheMinimum() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(MIN_LIMIT, MIN_LIMIT, MAX_LIMIT);
+
+        limiter.release(limiter.acquire(), true);
+        limiter.release(limiter.acquire(), true);
+
+        assertEquals(MIN_LIMIT, limiter.getLimit());
+    }
+
+    /**
+     * Healthy responses grow the limit slowly, up to the maximum
+     * @throws InterruptedException If interrupted while acquiring
+     */
+    @Test
+    public void healthyResponsesGrowTheLimitUpToTheMaximum() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+
+        limiter.release(limiter.acquire(), false);
+
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+
+        for (int i = 0; i < INITIAL_LIMIT; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+
+        assertEquals(INITIAL_LIMIT + 1, limiter.getLimit());
+
+        for (int i = 0; i < MANY_RESPONSES; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+
+        assertEquals(MAX_LIMIT, limiter.getLimit());
+    }
+
+    /**
+     * A request that failed without a response leaves the limit as it is
+     * @throws InterruptedException If interrupted while acquiring
+     */
+    @Test
+    public void releaseWithoutResponseKeepsTheLimit() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+
+        limiter.acquire();
+        limiter.release();
+
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+    }
+
+    /**
+     * Acquiring waits while the limit is reached and goes ahead once a request finishes
+     * @throws InterruptedException If interrupted while acquiring
+     */
+    @Test
+    public void acquireWaitsForARelease() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(MIN_LIMIT, MIN_LIMIT, MIN_LIMIT);
+        final long ticket = limiter.acquire();
+        final AtomicBoolean acquired = new AtomicBoolean();
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.set(true);
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+
+        waiter.join(BLOCKED_WAIT_MS);
+
+        assertFalse(acquired.get());
+
+        limiter.release(ticket, false);
+        waiter.join(RELEASED_WAIT_MS);
+
+        assertTrue(acquired.get());
+    }
+}
@@ -0,0 +1,276 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.microsoft.graph.extensions.DriveItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ListDiff}
+ */
+public class ListDiffTest {
+
+    /**
+     * The eTag given to items unless a test changes it
+     */
+    private static final String ETAG = "1";
+
+    /**
+     * The seed for the random listings, fixed so a failure can be reproduced
+     */
+    private static final long SEED = 42L;
+
+    /**
+     * The number of random listing pairs to diff
+     */
+    private static final int ROUNDS = 500;
+
+    /**
+     * The number of distinct ids the random listings are drawn from
+     */
+    private static final int POOL_SIZE = 12;
+
+    /**
+     * Identical listings need no operations
+     */
+    @Test
+    public void identicalListingsHaveNoOperations() {
+        final Recorder recorder = diff(items("a", "b", "c"), items("a", "b", "c"));
+
+        assertTrue(recorder.mOperations.isEmpty());
+    }
+
+    /**
+     * New items are inserted at their position in the new listing
+     */
+    @Test
+    public void insertsNewItems() {
+        final Recorder recorder = diff(items("a", "c"), items("a", "b", "c", "d"));
+
+        assertEquals(Arrays.asList("insert 1", "insert 3"), recorder.mOperations);
+    }
+
+    /**
+     * Missing items are removed from the back so earlier positions stay valid
+     */
+    @Test
+    public void removesMissingItems() {
+        final Recorder recorder = diff(items("a", "b", "c", "d"), items("b", "d"));
+
+        assertEquals(Arrays.asList("remove 2", "remove 0"), recorder.mOperations);
+    }
+
+    /**
+     * An item that changed position is moved rather than removed and inserted
+     */
+    @Test
+    public void movesReorderedItems() {
+        final Recorder recorder = diff(items("a", "b", "c"), items("c", "a", "b"));
+
+        assertEquals(Collections.singletonList("move 2 0"), recorder.mOperations);
+    }
+
+    /**
+     * An item whose eTag changed is changed in place
+     */
+    @Test
+    public void changesItemsWithANewETag() {
+        final List<DisplayItem> newItems = items("a", "b", "c");
+        newItems.set(1, item("b", "2"));
+
+        final Recorder recorder = diff(items("a", "b", "c"), newItems);
+
+        assertEquals(Collections.singletonList("change 1"), recorder.mOperations);
+    }
+
+    /**
+     * Replaying the operations on random listings always gives the new listing, with every changed item
+     * reported at its final position
+     */
+    @Test
+    public void replaysRandomListings() {
+        final Random random = new Random(SEED);
+        final List<String> pool = new ArrayList<>();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool.add("id" + i);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final List<DisplayItem> oldItems = randomItems(pool, random);
+            final List<DisplayItem> newItems = randomItems(pool, random);
+            final Map<String, String> oldETags = new HashMap<>();
+            final List<String> working = new ArrayList<>();
+            for (final DisplayItem item : oldItems) {
+                oldETags.put(item.getId(), eTagOf(item));
+                working.add(item.getId());
+            }
+
+            final Set<Integer> changed = new HashSet<>();
+            ListDiff.compute(oldItems, newItems).dispatchTo(new ListDiff.Receiver() {
+                @Override
+                public void onRemoved(final int position) {
+                    working.remove(position);
+                }
+
+                @Override
+                public void onInserted(final int position) {
+                    working.add(position, null);
+                }
+
+                @Override
+                public void onMoved(final int fromPosition, final int toPosition) {
+                    working.add(toPosition, working.remove(fromPosition));
+                }
+
+                @Override
+                public void onChanged(final int position) {
+                    assertTrue(changed.add(position));
+                }
+            });
+
+            assertEquals(newItems.size(), working.size());
+            for (int i = 0; i < newItems.size(); i++) {
+                final DisplayItem item = newItems.get(i);
+                final String oldETag = oldETags.get(item.getId());
+                if (oldETag == null) {
+                    assertNull(working.get(i));
+                    assertFalse(changed.contains(i));
+                } else {
+                    assertEquals(item.getId(), working.get(i));
+                    assertEquals(!oldETag.equals(eTagOf(item)), changed.contains(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Diffs two listings
+     * @param oldItems The current listing
+     * @param newItems The new listing
+     * @return The operations, recorded
+     */
+    private static Recorder diff(final List<DisplayItem> oldItems, final List<DisplayItem> newItems) {
+        final Recorder recorder = new Recorder();
+        ListDiff.compute(oldItems, newItems).dispatchTo(recorder);
+        return recorder;
+    }
+
+    /**
+     * Creates a listing of items with the default eTag
+     * @param ids The ids of the items, in order
+     * @return The listing
+     */
+    private static List<DisplayItem> items(final String... ids) {
+        final List<DisplayItem> items = new ArrayList<>();
+        for (final String id : ids) {
+            items.add(item(id, ETAG));
+        }
+        return items;
+    }
+
+    /**
+     * Creates a random listing from a pool of ids, with random eTags
+     * @param pool The ids to draw from
+     * @param random The source of randomness
+     * @return The listing
+     */
+    private static List<DisplayItem> randomItems(final List<String> pool, final Random random) {
+        final List<String> ids = new ArrayList<>(pool);
+        Collections.shuffle(ids, random);
+        final List<DisplayItem> items = new ArrayList<>();
+        for (final String id : ids.subList(0, random.nextInt(pool.size() + 1))) {
+            items.add(item(id, String.valueOf(random.nextInt(2))));
+        }
+        return items;
+    }
+
+    /**
+     * Creates an item
+     * @param id The item id
+     * @param eTag The item eTag
+     * @return The item
+     */
+    private static DisplayItem item(final String id, final String eTag) {
+        final DriveItem driveItem = new DriveItem();
+        driveItem.id = id;
+        driveItem.name = id;
+        driveItem.eTag = eTag;
+        return new DisplayItem(driveItem, id, null);
+    }
+
+    /**
+     * Gets the eTag of an item
+     * @param item The item
+     * @return The eTag
+     */
+    private static String eTagOf(final DisplayItem item) {
+        return item.getItem().eTag;
+    }
+
+    /**
+     * Records the operations of a diff as readable strings
+     */
+    private static final class Recorder implements ListDiff.Receiver {
+
+        /**
+         * The operations, in order
+         */
+        private final List<String> mOperations = new ArrayList<>();
+
+        @Override
+        public void onRemoved(final int position) {
+            mOperations.add("remove " + position);
+        }
+
+        @Override
+        public void onInserted(final int position) {
+            mOperations.add("insert " + position);
+        }
+
+        @Override
+        public void onMoved(final int fromPosition, final int toPosition) {
+            mOperations.add("move " + fromPosition + " " + toPosition);
+        }
+
+        @Override
+        public void onChanged(final int position) {
+            mOperations.add("change " + position);
+        }
+    }
+}
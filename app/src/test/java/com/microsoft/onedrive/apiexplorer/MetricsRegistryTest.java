@@ -0,0 +1,121 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+package com.microsoft.onedrive.apiexplorer;
+
+import org.junit.Test;
+
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link MetricsRegistry#template(HttpUrl)}
+ */
+public class MetricsRegistryTest {
+
+    /**
+     * The service root the urls are built on
+     */
+    private static final String ROOT = "https://graph.microsoft.com/v1.0";
+
+    /**
+     * The template of the service root
+     */
+    private static final String TEMPLATE_ROOT = "graph.microsoft.com/v1.0";
+
+    /**
+     * Urls without ids keep their segments
+     */
+    @Test
+    public void keepsPlainSegments() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/root/children", template(ROOT + "/me/drive/root/children"));
+    }
+
+    /**
+     * The member of a collection is replaced by an id placeholder, the query is dropped
+     */
+    @Test
+    public void replacesCollectionMembers() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/items/{id}/children",
+                     template(ROOT + "/me/drive/items/ABC123/children?select=id"));
+        assertEquals(TEMPLATE_ROOT + "/drives/{id}/items/{id}/versions/{id}",
+                     template(ROOT + "/drives/b123/items/ABC123/versions/3"));
+    }
+
+    /**
+     * A collection that follows a member is kept, and its own members are replaced in turn
+     */
+    @Test
+    public void keepsCollectionsOfMembers() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/items/{id}/thumbnails/{id}/medium",
+                     template(ROOT + "/me/drive/items/ABC123/thumbnails/0/medium"));
+    }
+
+    /**
+     * Long segments and segments with a '!' are ids wherever they appear
+     */
+    @Test
+    public void replacesIdLikeSegments() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/special/{id}",
+                     template(ROOT + "/me/drive/special/0123456789ABCDEF01234567"));
+        assertEquals(TEMPLATE_ROOT + "/shares/{id}/root", template(ROOT + "/shares/u!aHR0cHM6Ly9/root"));
+    }
+
+    /**
+     * The path of a path addressed item is replaced by a path placeholder, however deep it is
+     */
+    @Test
+    public void replacesItemPaths() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/root:{path}:/children",
+                     template(ROOT + "/me/drive/root:/Documents/Reports:/children"));
+        assertEquals(TEMPLATE_ROOT + "/me/drive/root:{path}:/children",
+                     template(ROOT + "/me/drive/root:/Documents:/children"));
+        assertEquals(TEMPLATE_ROOT + "/me/drive/items/{id}:{path}:/content",
+                     template(ROOT + "/me/drive/items/ABC123:/notes.txt:/content"));
+    }
+
+    /**
+     * A path addressed item at the end of the url is still replaced
+     */
+    @Test
+    public void replacesTrailingItemPaths() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/root:{path}:", template(ROOT + "/me/drive/root:/Documents/a.txt"));
+    }
+
+    /**
+     * Empty segments, such as from a trailing slash, are dropped
+     */
+    @Test
+    public void dropsEmptySegments() {
+        assertEquals(TEMPLATE_ROOT + "/me/drive/root/children", template(ROOT + "/me/drive/root/children/"));
+    }
+
+    /**
+     * Templates a url
+     * @param url The url
+     * @return The template
+     */
+    private static String template(final String url) {
+        return MetricsRegistry.template(HttpUrl.parse(url));
+    }
+}